@@ -0,0 +1,198 @@
+import java.util.Arrays;
+
+/** An array based list of character data objects, with the same API as List.
+ *  The characters of the list are kept in a char array, next to an array of the
+ *  CharData objects, so finding a character scans a contiguous char array,
+ *  and get(i) takes constant time.
+ *  To keep addFirst() constant time, the elements are stored in reverse order:
+ *  the first element of the list is the last element of the arrays. */
+public class ArrayCharList extends List {
+
+    // The initial capacity of the arrays of a list
+    private static final int INITIAL_CAPACITY = 4;
+
+    // The characters of the elements, in reverse order
+    private char[] chrs;
+
+    // The CharData objects of the elements, in reverse order
+    private CharData[] data;
+
+    // The number of elements in this list
+    private int size;
+
+    /** Constructs an empty list. */
+    public ArrayCharList() {
+        chrs = new char[INITIAL_CAPACITY];
+        data = new CharData[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /** Returns the number of elements in this list. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the first element in the list */
+    public CharData getFirst() {
+        return data[size - 1];
+    }
+
+    /** Adds a CharData object with the given character to the beginning of this list. */
+    public void addFirst(char chr) {
+        if (size == chrs.length) {
+            chrs = Arrays.copyOf(chrs, size * 2);
+            data = Arrays.copyOf(data, size * 2);
+        }
+        chrs[size] = chr;
+        data[size] = new CharData(chr);
+        size++;
+        sampler = null;
+        dirty = true;
+    }
+
+    /** Textual representation of this list. */
+    public String toString() {
+        StringBuilder result = new StringBuilder("(");
+        for (int i = size - 1; i >= 0; i--) {
+            result.append(data[i]);
+            if (i > 0) result.append(' ');
+        }
+        return result.append(')').toString();
+    }
+
+    /** Returns the index of the first CharData object in this list
+     *  that has the same chr value as the given char,
+     *  or -1 if there is no such object in this list. */
+    public int indexOf(char chr) {
+        int i = position(chr);
+        return i == -1 ? -1 : size - 1 - i;
+    }
+
+    /** If the given character exists in one of the CharData objects in this list,
+     *  increments its counter. Otherwise, adds a new CharData object with the
+     *  given chr to the beginning of this list. */
+    public void update(char chr) {
+        int i = position(chr);
+        if (i == -1) {
+            addFirst(chr);
+        }
+        else {
+            data[i].count++;
+            sampler = null;
+            dirty = true;
+        }
+    }
+
+    /** If the given character exists in one of the CharData objects in this list,
+     *  adds the given count to its counter. Otherwise, adds a new CharData object with the
+     *  given chr and count to the beginning of this list. */
+    public void update(char chr, int count) {
+        int i = position(chr);
+        if (i == -1) {
+            addFirst(chr);
+            data[size - 1].count = count;
+        }
+        else {
+            data[i].count += count;
+            sampler = null;
+            dirty = true;
+        }
+    }
+
+    /** Like update(chr), but if the given character exists in this list, it also swaps it
+     *  with the element before it (see List.updateTranspose). */
+    public void updateTranspose(char chr) {
+        int i = position(chr);
+        if (i == -1) {
+            addFirst(chr);
+            return;
+        }
+        data[i].count++;
+        // the element before it in the list is the next one in the arrays
+        if (i < size - 1) {
+            swap(i, i + 1);
+        }
+        sampler = null;
+        dirty = true;
+    }
+
+    /** Sorts the elements of this list by their counts, from the largest to the smallest.
+     *  Elements with the same count are sorted by their chars, so the sorted order depends
+     *  only on the counts, and not on the order of the list before the sort. */
+    public void sortByCount() {
+        CharData[] arr = toArray();
+        Arrays.sort(arr, (a, b) -> (a.count != b.count) ? b.count - a.count : a.chr - b.chr);
+        for (int i = 0; i < size; i++) {
+            data[size - 1 - i] = arr[i];
+            chrs[size - 1 - i] = arr[i].chr;
+        }
+        sampler = null;
+        dirty = true;
+    }
+
+    /** If the given character exists in one of the CharData objects
+     *  in this list, removes this CharData object from the list and returns
+     *  true. Otherwise, returns false. */
+    public boolean remove(char chr) {
+        int i = position(chr);
+        if (i == -1) {
+            return false;
+        }
+        System.arraycopy(chrs, i + 1, chrs, i, size - 1 - i);
+        System.arraycopy(data, i + 1, data, i, size - 1 - i);
+        size--;
+        data[size] = null;
+        sampler = null;
+        dirty = true;
+        return true;
+    }
+
+    /** Returns the CharData object at the specified index in this list.
+     *  If the index is negative or is greater than the size of this list,
+     *  throws an IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return data[size - 1 - index];
+    }
+
+    /** Returns an array of CharData objects, containing all the CharData objects in this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        for (int i = 0; i < size; i++) {
+            arr[i] = data[size - 1 - i];
+        }
+        return arr;
+    }
+
+    /** Returns an iterator over the elements in this list, starting at the given index. */
+    public ListIterator listIterator(int index) {
+        // If the list is empty, there is nothing to iterate
+        if (size == 0) return null;
+        return new ListIterator(toArray(), index);
+    }
+
+    // Swaps the elements at the given positions in the arrays
+    private void swap(int i, int j) {
+        char c = chrs[i];
+        chrs[i] = chrs[j];
+        chrs[j] = c;
+        CharData d = data[i];
+        data[i] = data[j];
+        data[j] = d;
+    }
+
+    // Returns the position in the arrays of the given character
+    // (scanning from the first element of the list), or -1 if it is not in the list
+    private int position(char chr) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (chrs[i] == chr) {
+                lastScan = size - i;
+                return i;
+            }
+        }
+        lastScan = size;
+        return -1;
+    }
+}
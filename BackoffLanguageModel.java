@@ -0,0 +1,134 @@
+import java.util.Random;
+
+/** A variable-order language model, that learns the contexts of all the window lengths
+ *  from 1 to a maximal window length, in one pass over the corpus.
+ *  The contexts of all the orders are kept in one ContextTrie of all the orders: a context
+ *  is walked from its last (newest) character to its first one, so the node at depth k of
+ *  the path of a context of the maximal order is its suffix of order k. The contexts of all
+ *  the orders thus share their keys: each char that is read walks one path of maxWindowLength
+ *  nodes, and is counted as a follower of each node on it.
+ *  The followers of the contexts of each order are the same as the lists of a LanguageModel
+ *  with that window length, trained on the same corpus (in the same order).
+ *  When generating, the model draws the next char from the followers of the longest context
+ *  that ends the text and was seen in the corpus, and backs off to shorter contexts
+ *  when the longer ones were not seen (instead of stopping, like a LanguageModel does). */
+public class BackoffLanguageModel implements TextGenerator {
+
+    // The maximal window length (order) of this model
+    int maxWindowLength;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    // The contexts of all the orders (the root of the trie is the empty context)
+    private final ContextTrie contexts;
+
+    /** Constructs a model of the window lengths 1 to maxWindowLength, with a given
+     *  seed value. Generating texts from this model multiple times with the
+     *  same seed value will produce the same random texts. Good for debugging. */
+    public BackoffLanguageModel(int maxWindowLength, int seed) {
+        this(maxWindowLength, new Random(seed));
+    }
+
+    /** Constructs a model of the window lengths 1 to maxWindowLength.
+     * Generating texts from this model multiple times will produce
+     * different random texts. Good for production. */
+    public BackoffLanguageModel(int maxWindowLength) {
+        this(maxWindowLength, new Random());
+    }
+
+    // Constructs an empty model with the given random number generator
+    private BackoffLanguageModel(int maxWindowLength, Random randomGenerator) {
+        if (maxWindowLength < 1) throw new IllegalArgumentException("illegal window length " + maxWindowLength);
+        this.maxWindowLength = maxWindowLength;
+        this.randomGenerator = randomGenerator;
+        contexts = new ContextTrie(maxWindowLength, true);
+    }
+
+    /** Builds the model from the text in the given file (the corpus). */
+    public void train(String fileName) {
+        CorpusReader in = new CorpusReader(fileName);
+        train(in);
+        in.close();
+    }
+
+    /** Builds the model from the characters of the given corpus reader. */
+    void train(CorpusReader in) {
+
+        // the window of the maximal order (the windows of the lower orders are its suffixes)
+        RollingWindow window = new RollingWindow(maxWindowLength);
+
+        // the number of chars that were read so far
+        long read = 0;
+
+        // read all the chars from the file
+        while (!in.isEmpty()) {
+            char c = in.readChar();
+
+            // count the char as a follower of each suffix of the window that is already full,
+            // from the shortest one to the longest one, along one path of the trie
+            int orders = (int) Math.min(read, maxWindowLength);
+            int node = 0;
+            for (int k = 1; k <= orders; k++) {
+                char label = window.charAt(maxWindowLength - k);
+                int child = contexts.child(node, label);
+                node = (child == -1) ? contexts.addChild(node, label) : child;
+                contexts.add(node, c);
+            }
+
+            // set the new window
+            window.add(c);
+            read++;
+        }
+    }
+
+    /** Returns a list of the chars that follow the given context in the corpus (a new list,
+     *  in the order of the list of a LanguageModel, with its probabilities), or null
+     *  if the context was not seen (or was seen only at the end of the corpus). */
+    public List getList(CharSequence context) {
+        if (context.length() < 1 || context.length() > maxWindowLength) return null;
+        int node = 0;
+        for (int j = context.length() - 1; j >= 0 && node != -1; j--) {
+            node = contexts.child(node, context.charAt(j));
+        }
+        return (node == -1) ? null : contexts.getList(node);
+    }
+
+    /** Returns the number of contexts (of all the orders) in this model. */
+    public int size() {
+        // each node except the root is a context that was seen, with at least one follower
+        return contexts.nodeCount() - 1;
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * Each char is drawn from the followers of the longest context (up to maxWindowLength chars)
+     * that ends the text so far and was seen in the corpus.
+     * @param initialText - text to start with. If it is empty, or none of its last chars
+     * was seen in the corpus, we generate no text and return only the initial text.
+     * @param textLength - the size of text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        result.append(initialText);
+
+        // generate each char of the new string
+        for (int i = 0; i < textLength; i++) {
+
+            // walk the suffixes of the text, from the shortest one, down to the longest one that was seen
+            int orders = Math.min(result.length(), maxWindowLength);
+            int node = 0;
+            for (int k = 1; k <= orders; k++) {
+                int child = contexts.child(node, result.charAt(result.length() - k));
+                if (child == -1) break;
+                node = child;
+            }
+            if (node == 0) break;
+
+            // get the new char
+            result.append(contexts.sample(node, randomGenerator.nextDouble()));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/** A language model for corpora whose characters are all Latin-1 (like ASCII texts),
+ *  with the same train and generate contract as LanguageModel.
+ *  The corpus is read as raw UTF-8 bytes, and each character is one byte: an ASCII byte,
+ *  or a two-byte UTF-8 sequence of a character between 0x80 and 0xFF. A window of up to
+ *  8 characters is packed into a long, which is updated with a shift and an or for each
+ *  character, and is used as the key of an open addressing table of primitive arrays,
+ *  with no String and no CharSequence hashing. The followers of each context are kept
+ *  in one flat store of parallel arrays, with a byte for each character, in the order
+ *  of the List of the context in a LanguageModel, so sampling them gives the same results.
+ *  If the window length is more than 8, or the corpus has a character that is not Latin-1
+ *  (or is not valid UTF-8), the model falls back to a LanguageModel, and behaves exactly
+ *  like it. Trained on the same corpus and generating with the same seed, this model
+ *  produces the same texts as a LanguageModel. */
+public class ByteLanguageModel implements TextGenerator, FollowerStore {
+
+    // The longest window that fits in a long key
+    static final int MAX_BYTE_WINDOW = 8;
+
+    // The initial number of contexts (and followers) that the arrays can hold
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    // The size of the blocks in which the corpus is read
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    // The window length used in this model.
+    int windowLength;
+
+    // The seed of the random number generator (if the model was constructed with one)
+    private final int seed;
+    private final boolean seeded;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    // The general model that this model falls back to (null while the byte tables are used)
+    private LanguageModel fallback;
+
+    // The bits of a key that hold a window
+    private long keyMask;
+
+    // The open addressing table. Each slot holds (context index + 1), or 0 if the slot is empty
+    private int[] slots;
+
+    // The number of contexts of this model
+    private int size;
+
+    // The packed window of each context, the index of its first follower (-1 if it has none),
+    // and the sum of the counts of its followers
+    private long[] keys;
+    private int[] firstFollower;
+    private int[] totals;
+
+    // The number of followers in the follower store
+    private int followerCount;
+
+    // The follower store: the character (as a Latin-1 byte), the count, and the index of the next
+    // follower of the same context (-1 at the end of the chain)
+    private byte[] chrs;
+    private int[] counts;
+    private int[] next;
+
+    /** Constructs a language model with the given window length and a given
+     *  seed value. Generating texts from this model multiple times with the
+     *  same seed value will produce the same random texts. Good for debugging. */
+    public ByteLanguageModel(int windowLength, int seed) {
+        this.windowLength = windowLength;
+        this.seed = seed;
+        seeded = true;
+        randomGenerator = new Random(seed);
+        clear();
+    }
+
+    /** Constructs a language model with the given window length.
+     * Generating texts from this model multiple times will produce
+     * different random texts. Good for production. */
+    public ByteLanguageModel(int windowLength) {
+        this.windowLength = windowLength;
+        seed = 0;
+        seeded = false;
+        randomGenerator = new Random();
+        clear();
+    }
+
+    /** Returns true if this model uses its byte tables, and false if it fell back to a LanguageModel. */
+    public boolean isByteMode() {
+        return fallback == null;
+    }
+
+    /** Returns the number of contexts of this model. */
+    public int size() {
+        return fallback == null ? size : fallback.CharDataMap.size();
+    }
+
+    /** Builds a language model from the text in the given file (the corpus), replacing the
+     *  model of a previous training. Falls back to a LanguageModel if the window length is
+     *  more than 8, or if the corpus has a character that is not Latin-1. */
+    public void train(String fileName) {
+        clear();
+        if (windowLength <= MAX_BYTE_WINDOW && trainBytes(fileName)) {
+            return;
+        }
+        clear();
+        fallback = seeded ? new LanguageModel(windowLength, seed) : new LanguageModel(windowLength);
+        fallback.train(fileName);
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * @param initialText - text to start with. If initialText's last substring of size windowLength
+     * doesn't appear as a context in the model, we generate no text and return only the initial text.
+     * @param textLength - the size of text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        if (fallback != null) {
+            return fallback.generate(initialText, textLength);
+        }
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+
+        // pack the last window of the initial text (a window with a char that is not Latin-1
+        // is not a context of the model)
+        long key = 0;
+        for (int i = initialText.length() - windowLength; i < initialText.length(); i++) {
+            char c = initialText.charAt(i);
+            if (c > 0xFF) return initialText;
+            key = (key << 8) | c;
+        }
+
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        result.append(initialText);
+        for (int i = 0; i < textLength; i++) {
+            int context = find(key);
+            // the window was seen only at the end of the corpus, and has no followers
+            if (context == -1) break;
+            int b = sample(context, randomGenerator.nextDouble());
+            result.append((char) b);
+            key = ((key << 8) | b) & keyMask;
+        }
+        return result.toString();
+    }
+
+    // Counts the characters of the given file in the byte tables.
+    // Returns false if the file has a character that is not Latin-1.
+    private boolean trainBytes(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            byte[] block = buffer.array();
+            long fileSize = channel.size();
+
+            // the window, the number of chars that were read into it, and the lead byte
+            // of a two-byte character whose second byte was not read yet (0 if there is none)
+            long key = 0;
+            int read = 0;
+            int lead = 0;
+
+            // a whitespace char is counted only if a char that is not a whitespace follows it
+            // (so the trailing whitespace of the corpus is not counted, like in LanguageModel.train).
+            // The bytes after it are scanned into a lookahead buffer, like in CorpusReader, and the
+            // position of the char that was found is kept, so the whitespace before it is counted as it is read
+            ByteBuffer lookahead = null;
+            long nonWhitespacePosition = -1;
+
+            // the position in the file of the block that was read
+            long blockStart = 0;
+
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    int b = block[i] & 0xFF;
+
+                    // decode the char: ASCII, or the second byte of U+0080..U+00FF
+                    if (lead != 0) {
+                        if ((b & 0xC0) != 0x80) return false;
+                        b = ((lead & 0x1F) << 6) | (b & 0x3F);
+                        lead = 0;
+                    }
+                    else if (b >= 0x80) {
+                        if (b != 0xC2 && b != 0xC3) return false;
+                        lead = b;
+                        continue;
+                    }
+
+                    // the first windowLength chars fill the first window, and are not counted
+                    if (read < windowLength) {
+                        key = (key << 8) | b;
+                        read++;
+                        continue;
+                    }
+                    // (a whitespace char that is Latin-1 is ASCII, so it is one byte)
+                    if (Character.isWhitespace((char) b) && blockStart + i > nonWhitespacePosition) {
+                        if (lookahead == null) {
+                            lookahead = ByteBuffer.allocate(BLOCK_SIZE);
+                        }
+                        nonWhitespacePosition = CorpusReader.findNonWhitespace(channel, blockStart + i + 1, fileSize, lookahead);
+                        // only whitespace is left, and it is not counted
+                        if (nonWhitespacePosition == -1) return true;
+                    }
+                    add(findOrAdd(key), b);
+                    key = ((key << 8) | b) & keyMask;
+                }
+                blockStart += n;
+                buffer.clear();
+            }
+            // a two-byte character that was cut by the end of the file is not valid
+            return lead == 0;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+    }
+
+    // Returns the index of the context with the given key, or -1 if the model does not have it
+    private int find(long key) {
+        int mask = slots.length - 1;
+        for (int i = (int) ContextTable.slot(key, mask); slots[i] != 0; i = (i + 1) & mask) {
+            if (keys[slots[i] - 1] == key) {
+                return slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the index of the context with the given key, and adds it if the model does not have it
+    private int findOrAdd(long key) {
+        int mask = slots.length - 1;
+        int i = (int) ContextTable.slot(key, mask);
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            if (keys[slots[i] - 1] == key) {
+                return slots[i] - 1;
+            }
+        }
+
+        // add the context
+        if (size == keys.length) {
+            int capacity = size + (size >> 1);
+            keys = Arrays.copyOf(keys, capacity);
+            firstFollower = Arrays.copyOf(firstFollower, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+        }
+        int context = size++;
+        keys[context] = key;
+        firstFollower[context] = -1;
+        totals[context] = 0;
+        slots[i] = context + 1;
+
+        // keep the table at most half full
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return context;
+    }
+
+    // Counts the given char (a Latin-1 byte) as a follower of the given context. A new follower
+    // is added to the beginning of the followers of the context, like in a List.
+    private void add(int context, int b) {
+        totals[context]++;
+        for (int f = firstFollower[context]; f != -1; f = next[f]) {
+            if ((chrs[f] & 0xFF) == b) {
+                counts[f]++;
+                return;
+            }
+        }
+        if (followerCount == chrs.length) {
+            int capacity = followerCount + (followerCount >> 1);
+            chrs = Arrays.copyOf(chrs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        int f = followerCount++;
+        chrs[f] = (byte) b;
+        counts[f] = 1;
+        next[f] = firstFollower[context];
+        firstFollower[context] = f;
+    }
+
+    // Returns a follower of the given context (as a Latin-1 byte), chosen by the given random
+    // number, like LanguageModel.getRandomChar chooses a character from a list (see FollowerStore.sample)
+    private int sample(int context, double r) {
+        return FollowerStore.sample(this, context, totals[context], r);
+    }
+
+    /** Returns the index of the first follower of the given context, or -1 if it has none. */
+    public long firstFollower(int context) {
+        return firstFollower[context];
+    }
+
+    /** Returns the index of the follower of the given context that comes after the given one,
+     *  or -1 if the given one is the last one. */
+    public long nextFollower(int context, long follower) {
+        return next[(int) follower];
+    }
+
+    /** Returns the character of the given follower. */
+    public char followerChar(long follower) {
+        return (char) (chrs[(int) follower] & 0xFF);
+    }
+
+    /** Returns the count of the given follower. */
+    public int followerCount(long follower) {
+        return counts[(int) follower];
+    }
+
+    // Doubles the size of the open addressing table, and re-inserts all the contexts
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int context = 0; context < size; context++) {
+            int i = (int) ContextTable.slot(keys[context], mask);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = context + 1;
+        }
+    }
+
+    // Empties the byte tables
+    private void clear() {
+        keyMask = windowLength >= MAX_BYTE_WINDOW ? -1L : (1L << (8 * windowLength)) - 1;
+        slots = new int[2 * INITIAL_CAPACITY];
+        size = 0;
+        keys = new long[INITIAL_CAPACITY];
+        firstFollower = new int[INITIAL_CAPACITY];
+        totals = new int[INITIAL_CAPACITY];
+        followerCount = 0;
+        chrs = new byte[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+        fallback = null;
+    }
+}
@@ -30,6 +30,11 @@ public class CharData {
 	
 	/** Returns a textual representation of this CharData object. */
 	public String toString() {
+		return toString(chr, count, p, cp);
+	}
+
+	/** Returns the textual representation of a CharData object with the given fields. */
+	static String toString(char chr, int count, double p, double cp) {
 		return "(" + chr + " " + count + " " + p + " " + cp + ")";
 	}
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+import java.util.Random;
+
+/** A language model with the same train and generate contract as LanguageModel,
+ *  that keeps its contexts in a ContextIndex (by default a ContextTable, of primitive arrays)
+ *  instead of a HashMap<String, List>. A context of a LanguageModel costs a map entry, a String key
+ *  and its char array, a List, and a Node and a CharData object for each follower.
+ *  In this model, a context costs its characters, a few ints in the table,
+ *  and 10 bytes for each follower, so large models take a fraction of the heap.
+ *  Trained on the same corpus and generating with the same seed, this model
+ *  produces the same texts as a LanguageModel. */
+public class CompactLanguageModel implements TextGenerator {
+
+    // The contexts of this model, and the characters that follow them
+    ContextIndex contexts;
+
+    // The window length used in this model.
+    int windowLength;
+
+    // The random number generator used by this model.
+    private Random randomGenerator;
+
+    /** Constructs a language model with the given window length and a given
+     *  seed value. Generating texts from this model multiple times with the
+     *  same seed value will produce the same random texts. Good for debugging. */
+    public CompactLanguageModel(int windowLength, int seed) {
+        this.windowLength = windowLength;
+        randomGenerator = new Random(seed);
+        contexts = new ContextTable(windowLength);
+    }
+
+    /** Constructs a language model with the given window length.
+     * Generating texts from this model multiple times will produce
+     * different random texts. Good for production. */
+    public CompactLanguageModel(int windowLength) {
+        this.windowLength = windowLength;
+        randomGenerator = new Random();
+        contexts = new ContextTable(windowLength);
+    }
+
+    /** Constructs a language model that keeps its contexts in the given (empty) index,
+     *  for example a ContextTrie, with a given seed value. */
+    public CompactLanguageModel(ContextIndex contexts, int seed) {
+        this.windowLength = contexts.getWindowLength();
+        randomGenerator = new Random(seed);
+        this.contexts = contexts;
+    }
+
+    /** Builds a language model from the text in the given file (the corpus). */
+    public void train(String fileName) {
+        CorpusReader in = new CorpusReader(fileName);
+        train(in);
+        in.close();
+    }
+
+    /** Builds a language model from the characters of the given corpus reader. */
+    void train(CorpusReader in) {
+
+        // read the initial window from the file
+        RollingWindow window = new RollingWindow(windowLength);
+        for (int i = 0; i < windowLength; i++) {
+            window.add(in.readChar());
+        }
+
+        // count each char as a follower of the window before it
+        while (!in.isEmpty()) {
+            char c = in.readChar();
+            contexts.add(contexts.findOrAdd(window), c);
+            window.add(c);
+        }
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * @param initialText - text to start with. If initialText's last substring of size windowLength
+     * doesn't appear as a context in the model, we generate no text and return only the initial text.
+     * @param textLength - the size of text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        if (initialText.length() < windowLength) {
+            return initialText;
+        }
+        RollingWindow window = new RollingWindow(windowLength);
+        window.set(initialText);
+        if (contexts.find(window) == -1) {
+            return initialText;
+        }
+
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        result.append(initialText);
+        for (int i = 0; i < textLength; i++) {
+            int context = contexts.find(window);
+            // the window was seen only at the end of the corpus, and has no followers
+            if (context == -1) break;
+            char c = contexts.sample(context, randomGenerator.nextDouble());
+            result.append(c);
+            window.add(c);
+        }
+        return result.toString();
+    }
+
+    /** Returns a string representing the contexts of this language model. */
+    public String toString() {
+        return contexts.toString();
+    }
+}
@@ -0,0 +1,35 @@
+/** An index of the contexts (windows of a fixed length) of a CompactLanguageModel,
+ *  and of the characters that follow them. Each context is identified by an int,
+ *  and contexts are looked up by a RollingWindow, without creating a String.
+ *  The followers of a context are kept in the order of the List of that context in a
+ *  LanguageModel (a new follower comes first), so sampling them gives the same results. */
+public interface ContextIndex {
+
+    /** Returns the number of contexts in this index. */
+    int size();
+
+    /** Returns the length of the contexts in this index. */
+    int getWindowLength();
+
+    /** Returns the id of the given context, or -1 if this index does not have it. */
+    int find(RollingWindow window);
+
+    /** Returns the id of the given context. If this index does not have the context,
+     *  adds it (with no followers). */
+    int findOrAdd(RollingWindow window);
+
+    /** If the given character follows the given context, increments its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with count 1. */
+    void add(int context, char chr);
+
+    /** If the given character follows the given context, adds the given count to its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with the given count. */
+    void add(int context, char chr, int count);
+
+    /** Returns the number of times the given context was seen (the sum of the counts of its followers). */
+    int getTotal(int context);
+
+    /** Returns a follower of the given context, chosen by the given random number (between 0 and 1),
+     *  like LanguageModel.getRandomChar chooses a character from a list. */
+    char sample(int context, double r);
+}
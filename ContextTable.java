@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+/** A table that maps contexts (windows of a fixed length) to the characters that follow them,
+ *  stored in primitive arrays instead of objects.
+ *  Contexts are found by open addressing (linear probing) over their 64 bit hash codes,
+ *  and each context is identified by an int index. The characters of all the contexts are
+ *  kept in one char array, and the followers of all the contexts are kept in one flat store
+ *  of parallel arrays, where the followers of each context are chained by int indices.
+ *  Like in a List, a new follower is added to the beginning of the chain of its context,
+ *  so the followers of a context are kept in the same order as in the List of that context
+ *  in a LanguageModel, and sampling them gives the same results. */
+public class ContextTable implements ContextIndex, FollowerStore {
+
+    // The initial number of contexts (and followers) that the arrays can hold
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    // The length of the contexts in this table
+    private final int windowLength;
+
+    // The open addressing table. Each slot holds (context index + 1), or 0 if the slot is empty
+    private int[] slots;
+
+    // The number of contexts in this table
+    private int size;
+
+    // The characters of all the contexts: context i is at [i * windowLength, (i + 1) * windowLength)
+    private char[] keys;
+
+    // The 64 bit hash code of each context
+    private long[] hashes;
+
+    // The index of the first follower of each context (-1 if it has none)
+    private int[] firstFollower;
+
+    // The sum of the counts of the followers of each context
+    private int[] totals;
+
+    // The number of followers in the follower store
+    private int followerCount;
+
+    // The follower store: the character, the count, and the index of the next follower
+    // of the same context (-1 at the end of the chain)
+    private char[] chrs;
+    private int[] counts;
+    private int[] next;
+
+    /** Constructs an empty table of contexts of the given length. */
+    public ContextTable(int windowLength) {
+        this.windowLength = windowLength;
+        slots = new int[2 * INITIAL_CAPACITY];
+        keys = new char[INITIAL_CAPACITY * windowLength];
+        hashes = new long[INITIAL_CAPACITY];
+        firstFollower = new int[INITIAL_CAPACITY];
+        totals = new int[INITIAL_CAPACITY];
+        chrs = new char[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+    }
+
+    /** Returns the number of contexts in this table. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the length of the contexts in this table. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the index of the given context in this table, or -1 if the table does not have it. */
+    public int find(RollingWindow window) {
+        long hash = window.longHashCode();
+        int mask = slots.length - 1;
+        for (int i = (int) slot(hash, mask); slots[i] != 0; i = (i + 1) & mask) {
+            if (hashes[slots[i] - 1] == hash && keyEquals(slots[i] - 1, window)) {
+                return slots[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the index of the given context in this table.
+     *  If the table does not have the context, adds it (with no followers). */
+    public int findOrAdd(RollingWindow window) {
+        long hash = window.longHashCode();
+        int mask = slots.length - 1;
+        int i = (int) slot(hash, mask);
+        for (; slots[i] != 0; i = (i + 1) & mask) {
+            if (hashes[slots[i] - 1] == hash && keyEquals(slots[i] - 1, window)) {
+                return slots[i] - 1;
+            }
+        }
+
+        // add the context
+        if (size == totals.length) {
+            growContexts();
+        }
+        int context = size++;
+        for (int j = 0; j < windowLength; j++) {
+            keys[context * windowLength + j] = window.charAt(j);
+        }
+        hashes[context] = hash;
+        firstFollower[context] = -1;
+        totals[context] = 0;
+        slots[i] = context + 1;
+
+        // keep the table at most half full
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return context;
+    }
+
+    /** If the given character follows the given context, increments its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with count 1. */
+    public void add(int context, char chr) {
+        add(context, chr, 1);
+    }
+
+    /** If the given character follows the given context, adds the given count to its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with the given count. */
+    public void add(int context, char chr, int count) {
+        totals[context] += count;
+        for (int f = firstFollower[context]; f != -1; f = next[f]) {
+            if (chrs[f] == chr) {
+                counts[f] += count;
+                return;
+            }
+        }
+        if (followerCount == chrs.length) {
+            growFollowers();
+        }
+        int f = followerCount++;
+        chrs[f] = chr;
+        counts[f] = count;
+        next[f] = firstFollower[context];
+        firstFollower[context] = f;
+    }
+
+    /** Returns the number of times the given context was seen (the sum of the counts of its followers). */
+    public int getTotal(int context) {
+        return totals[context];
+    }
+
+    /** Returns a follower of the given context, chosen by the given random number (between 0 and 1),
+     *  like LanguageModel.getRandomChar chooses a character from a list (see FollowerStore.sample). */
+    public char sample(int context, double r) {
+        return FollowerStore.sample(this, context, totals[context], r);
+    }
+
+    /** Returns the index of the first follower of the given context, or -1 if it has none. */
+    public long firstFollower(int context) {
+        return firstFollower[context];
+    }
+
+    /** Returns the index of the follower of the given context that comes after the given one,
+     *  or -1 if the given one is the last one. */
+    public long nextFollower(int context, long follower) {
+        return next[(int) follower];
+    }
+
+    /** Returns the character of the given follower. */
+    public char followerChar(long follower) {
+        return chrs[(int) follower];
+    }
+
+    /** Returns the count of the given follower. */
+    public int followerCount(long follower) {
+        return counts[(int) follower];
+    }
+
+    /** Returns the characters of the given context, as a new String. */
+    public String getKey(int context) {
+        return new String(keys, context * windowLength, windowLength);
+    }
+
+    /** Returns a textual representation of this table, in the format of LanguageModel.toString()
+     *  (the contexts are listed in the order in which they were added). */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (int context = 0; context < size; context++) {
+            str.append(getKey(context)).append(" : ");
+            FollowerStore.appendFollowers(str, this, context, totals[context], true);
+            str.append('\n');
+        }
+        return str.toString();
+    }
+
+    // Returns the first slot to probe for the given hash code, in a table of (mask + 1) slots.
+    // All the open addressing tables of contexts probe from this slot (including the slots of a
+    // mapped model file, so a file is read with the slots that it was written with).
+    static long slot(long hash, long mask) {
+        // mixes the bits of the hash code (the finalizer of MurmurHash3),
+        // since the low bits of a polynomial hash code are not well distributed
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash & mask;
+    }
+
+    // Checks if the given context has the same characters as the given window
+    private boolean keyEquals(int context, RollingWindow window) {
+        int offset = context * windowLength;
+        for (int j = 0; j < windowLength; j++) {
+            if (keys[offset + j] != window.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    // Doubles the size of the open addressing table, and re-inserts all the contexts
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int context = 0; context < size; context++) {
+            int i = (int) slot(hashes[context], mask);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = context + 1;
+        }
+    }
+
+    // Grows the number of contexts that the context arrays can hold by half
+    private void growContexts() {
+        int capacity = totals.length + (totals.length >> 1);
+        keys = Arrays.copyOf(keys, capacity * windowLength);
+        hashes = Arrays.copyOf(hashes, capacity);
+        firstFollower = Arrays.copyOf(firstFollower, capacity);
+        totals = Arrays.copyOf(totals, capacity);
+    }
+
+    // Grows the number of followers that the follower store can hold by half
+    private void growFollowers() {
+        int capacity = chrs.length + (chrs.length >> 1);
+        chrs = Arrays.copyOf(chrs, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+}
@@ -0,0 +1,275 @@
+import java.util.Arrays;
+
+/** A context index that keeps the contexts in a character trie, stored in primitive arrays.
+ *  A context is a path of windowLength nodes from the root, walked from the last (newest)
+ *  character of the context to the first one, so contexts that end with the same characters
+ *  share the nodes of their common suffix, and each node at depth k stands for a context of
+ *  length k. The children of a node are chained by int indices, and a context is found by
+ *  walking windowLength levels, comparing the characters of the window with the labels
+ *  of the nodes, with no String and no hash code.
+ *  The id of a context is the index of its leaf node, and the followers of the contexts
+ *  are kept in one flat store of parallel arrays, like in ContextTable.
+ *  A trie of all the orders (see BackoffLanguageModel) also keeps followers at its inner nodes:
+ *  the node at depth k of the path of a context is its suffix of length k, and is a context too. */
+public class ContextTrie implements ContextIndex, FollowerStore {
+
+    // The initial number of nodes (and followers) that the arrays can hold
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    // The length of the contexts in this trie
+    private final int windowLength;
+
+    // The number of nodes in this trie (node 0 is the root)
+    private int nodeCount;
+
+    // The number of contexts (leaves) in this trie
+    private int size;
+
+    // The nodes: the character of the node, the index of its first child (-1 if it has none)
+    // and the index of its next sibling (-1 if it is the last one). For a leaf, which has no
+    // children, firstChild holds the index of its first follower instead (-1 if it has none).
+    private char[] labels;
+    private int[] firstChild;
+    private int[] nextSibling;
+
+    // The index of the first follower of each node (-1 if it has none), in a trie of all the
+    // orders, whose inner nodes have followers too (null in a trie of one order)
+    private int[] firstFollower;
+
+    // The number of followers in the follower store
+    private int followerCount;
+
+    // The follower store: the character, the count, and the index of the next follower
+    // of the same context (-1 at the end of the chain)
+    private char[] chrs;
+    private int[] counts;
+    private int[] next;
+
+    /** Constructs an empty trie of contexts of the given length. */
+    public ContextTrie(int windowLength) {
+        this(windowLength, false);
+    }
+
+    // Constructs an empty trie of contexts of the given length, or of all the lengths
+    // up to the given one (whose nodes all have followers, and are walked by child and addChild)
+    ContextTrie(int windowLength, boolean allOrders) {
+        this.windowLength = windowLength;
+        labels = new char[INITIAL_CAPACITY];
+        firstChild = new int[INITIAL_CAPACITY];
+        nextSibling = new int[INITIAL_CAPACITY];
+        if (allOrders) {
+            firstFollower = new int[INITIAL_CAPACITY];
+            firstFollower[0] = -1;
+        }
+        chrs = new char[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+        firstChild[0] = -1;
+        nextSibling[0] = -1;
+        nodeCount = 1;
+    }
+
+    /** Returns the number of contexts in this trie. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of nodes in this trie (including the root). */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns the length of the contexts in this trie. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the id of the given context in this trie, or -1 if the trie does not have it. */
+    public int find(RollingWindow window) {
+        int node = 0;
+        for (int j = windowLength - 1; j >= 0 && node != -1; j--) {
+            node = child(node, window.charAt(j));
+        }
+        return node;
+    }
+
+    /** Returns the id of the given context in this trie.
+     *  If the trie does not have the context, adds it (with no followers). */
+    public int findOrAdd(RollingWindow window) {
+        int node = 0;
+        for (int j = windowLength - 1; j >= 0; j--) {
+            char c = window.charAt(j);
+            int child = child(node, c);
+            if (child == -1) {
+                child = addChild(node, c);
+                if (j == 0) size++;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    /** If the given character follows the given context, increments its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with count 1. */
+    public void add(int context, char chr) {
+        add(context, chr, 1);
+    }
+
+    /** If the given character follows the given context, adds the given count to its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with the given count. */
+    public void add(int context, char chr, int count) {
+        int first = head(context);
+        for (int f = first; f != -1; f = next[f]) {
+            if (chrs[f] == chr) {
+                counts[f] += count;
+                return;
+            }
+        }
+        if (followerCount == chrs.length) {
+            growFollowers();
+        }
+        int f = followerCount++;
+        chrs[f] = chr;
+        counts[f] = count;
+        next[f] = first;
+        if (firstFollower == null) firstChild[context] = f;
+        else firstFollower[context] = f;
+    }
+
+    /** Returns the number of times the given context was seen (the sum of the counts of its followers). */
+    public int getTotal(int context) {
+        int sum = 0;
+        for (int f = head(context); f != -1; f = next[f]) {
+            sum += counts[f];
+        }
+        return sum;
+    }
+
+    /** Returns a follower of the given context, chosen by the given random number (between 0 and 1),
+     *  like LanguageModel.getRandomChar chooses a character from a list (see FollowerStore.sample). */
+    public char sample(int context, double r) {
+        return FollowerStore.sample(this, context, getTotal(context), r);
+    }
+
+    /** Returns the index of the first follower of the given context, or -1 if it has none. */
+    public long firstFollower(int context) {
+        return head(context);
+    }
+
+    /** Returns the index of the follower of the given context that comes after the given one,
+     *  or -1 if the given one is the last one. */
+    public long nextFollower(int context, long follower) {
+        return next[(int) follower];
+    }
+
+    /** Returns the character of the given follower. */
+    public char followerChar(long follower) {
+        return chrs[(int) follower];
+    }
+
+    /** Returns the count of the given follower. */
+    public int followerCount(long follower) {
+        return counts[(int) follower];
+    }
+
+    // Returns a new list of the followers of the given context, in their order,
+    // with their probabilities (which a count list derives from the counts)
+    List getList(int context) {
+        int n = 0;
+        for (int f = head(context); f != -1; f = next[f]) {
+            n++;
+        }
+        // the followers are added to the beginning of the list, from the last one to the first one
+        int[] followers = new int[n];
+        int i = 0;
+        for (int f = head(context); f != -1; f = next[f]) {
+            followers[i++] = f;
+        }
+        List l = new CountList();
+        for (i = n - 1; i >= 0; i--) {
+            l.addFirst(chrs[followers[i]], counts[followers[i]]);
+        }
+        l.dirty = false;
+        return l;
+    }
+
+    /** Returns a textual representation of this trie, in the format of LanguageModel.toString()
+     *  (the contexts are listed in the order of a depth first walk of the trie). */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        char[] key = new char[windowLength];
+        appendContexts(str, 0, key, windowLength);
+        return str.toString();
+    }
+
+    // Appends the contexts below the given node to the given text. The characters of the path
+    // from the root to the node are at the end of the key, after the given position.
+    private void appendContexts(StringBuilder str, int node, char[] key, int position) {
+        if (position == 0) {
+            str.append(key).append(" : ");
+            FollowerStore.appendFollowers(str, this, node, getTotal(node), true);
+            str.append('\n');
+            return;
+        }
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            key[position - 1] = labels[child];
+            appendContexts(str, child, key, position - 1);
+        }
+    }
+
+    // Returns the index of the first follower of the given context (-1 if it has none)
+    private int head(int context) {
+        return (firstFollower == null) ? firstChild[context] : firstFollower[context];
+    }
+
+    // Returns the child of the given node with the given character, or -1 if there is none.
+    // The child that is found is moved to the beginning of the children of the node,
+    // so the children that are walked often are found after a short scan.
+    int child(int node, char c) {
+        int previous = -1;
+        for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+            if (labels[child] == c) {
+                if (previous != -1) {
+                    nextSibling[previous] = nextSibling[child];
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                return child;
+            }
+            previous = child;
+        }
+        return -1;
+    }
+
+    // Adds a child with the given character (and no followers) to the beginning of the children
+    // of the given node, and returns it
+    int addChild(int node, char c) {
+        if (nodeCount == labels.length) {
+            growNodes();
+        }
+        int child = nodeCount++;
+        labels[child] = c;
+        firstChild[child] = -1;
+        if (firstFollower != null) firstFollower[child] = -1;
+        nextSibling[child] = firstChild[node];
+        firstChild[node] = child;
+        return child;
+    }
+
+    // Grows the number of nodes that the node arrays can hold by half
+    private void growNodes() {
+        int capacity = labels.length + (labels.length >> 1);
+        labels = Arrays.copyOf(labels, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        if (firstFollower != null) firstFollower = Arrays.copyOf(firstFollower, capacity);
+    }
+
+    // Grows the number of followers that the follower store can hold by half
+    private void growFollowers() {
+        int capacity = chrs.length + (chrs.length >> 1);
+        chrs = Arrays.copyOf(chrs, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+}
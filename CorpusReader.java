@@ -0,0 +1,447 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.NoSuchElementException;
+
+/** Reads the characters of a corpus file, for training a language model.
+ *  The file is read through a FileChannel in large blocks, and each block is decoded
+ *  from UTF-8 into a reusable CharBuffer, so reading a character allocates nothing.
+ *  A mapped reader maps the file in segments instead of reading it, so the blocks
+ *  are buffered by the page cache, and the heap use does not depend on the file size.
+ *  isEmpty() looks for a character that is not a whitespace in the bytes of the file, without
+ *  decoding them, so a long run of whitespace is not kept in the heap either.
+ *  The reading methods mirror those of In (isEmpty, hasNextChar, readChar), so a reader
+ *  can replace an In object in the training loop.
+ *  A corpus reader can also read the characters of a java.io.Reader, or of a CharSequence. */
+public class CorpusReader implements AutoCloseable {
+
+    // The size (in bytes and in chars) of the buffers used by a reader
+    static final int BUFFER_SIZE = 1 << 16;
+
+    // The default size of the file segments that a mapped reader maps at a time
+    static final int SEGMENT_SIZE = 1 << 26;
+
+    // The file that is read (null if the characters come from a Reader or a CharSequence)
+    private final FileChannel channel;
+
+    // The Reader whose characters are read (null if the characters do not come from a Reader)
+    private final Reader source;
+
+    // Decodes the bytes of the file into characters
+    private final CharsetDecoder decoder;
+
+    // Bytes that were read (or mapped) from the file and were not decoded yet (in read mode)
+    private ByteBuffer bytes;
+
+    // If true, the file is mapped in segments instead of being read into the byte buffer
+    private final boolean mapped;
+
+    // The size of the file segments that this reader maps at a time (if it maps the file)
+    private final int segmentSize;
+
+    // The position in the file of the first byte of the mapped segment
+    private long segmentStart;
+
+    // The position in the file of the next byte to read (if the file is not mapped)
+    private long readPosition;
+
+    // The position in the file after the last byte to read
+    private final long end;
+
+    // Characters that were decoded and were not read yet (in read mode)
+    private CharBuffer chars;
+
+    // True if the last decoding step consumed all the bytes it was given
+    private boolean underflow;
+
+    // True if the channel reached the end of the file
+    private boolean endOfInput;
+
+    // True if all the characters of the file were decoded
+    private boolean eof;
+
+    // If true, isEmpty() ignores whitespace, like In.isEmpty() does
+    private final boolean skipTrailingWhitespace;
+
+    // If positive, the unread character at offset (nonWhitespaceAhead - 1) is not a whitespace
+    private int nonWhitespaceAhead;
+
+    // The position in the file of the first byte of a character that is not a whitespace,
+    // and that was found ahead of the decoded characters (-1 if none was found)
+    private long nonWhitespacePosition = -1;
+
+    // The buffer that the bytes ahead of the decoded characters are read into, to look for a
+    // character that is not a whitespace (null until it is needed)
+    private ByteBuffer lookahead;
+
+    /** Constructs a reader of the given file.
+     *  Like In, isEmpty() returns true when only whitespace is left in the file,
+     *  so a training loop that stops on isEmpty() skips the trailing whitespace. */
+    public CorpusReader(String fileName) {
+        this(fileName, true);
+    }
+
+    /** Constructs a reader of the given file. If skipTrailingWhitespace is false,
+     *  isEmpty() returns true only when all the characters of the file were read. */
+    public CorpusReader(String fileName, boolean skipTrailingWhitespace) {
+        this(fileName, skipTrailingWhitespace, false);
+    }
+
+    /** Constructs a reader of the given file. If mapped is true, the file is memory-mapped
+     *  in segments of SEGMENT_SIZE bytes (64 MiB), and decoded directly from the mapped segments.
+     *  Characters that cross the boundary between two segments are decoded correctly. */
+    public CorpusReader(String fileName, boolean skipTrailingWhitespace, boolean mapped) {
+        this(fileName, skipTrailingWhitespace, mapped, SEGMENT_SIZE, 0, -1);
+    }
+
+    // Constructs a mapped reader of the given file, that maps segments of the given size
+    // (at least 4 bytes, so each segment can hold a whole UTF-8 character)
+    CorpusReader(String fileName, boolean skipTrailingWhitespace, int segmentSize) {
+        this(fileName, skipTrailingWhitespace, true, segmentSize, 0, -1);
+    }
+
+    /** Constructs a reader of the bytes of the given file between the given positions
+     *  (from start, inclusive, to end, exclusive). Both positions must be at the beginning
+     *  of a UTF-8 character (or at the end of the file). */
+    public CorpusReader(String fileName, boolean skipTrailingWhitespace, long start, long end) {
+        this(fileName, skipTrailingWhitespace, false, SEGMENT_SIZE, start, end);
+    }
+
+    // Constructs a reader of the given range of the file (end -1 stands for the end of the file)
+    private CorpusReader(String fileName, boolean skipTrailingWhitespace, boolean mapped, int segmentSize, long start, long end) {
+        if (fileName == null) throw new IllegalArgumentException("argument is null");
+        if (segmentSize < 4) throw new IllegalArgumentException("illegal segment size " + segmentSize);
+        try {
+            channel = FileChannel.open(Paths.get(fileName));
+            this.end = (end == -1) ? channel.size() : end;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+        if (start < 0 || start > this.end) throw new IllegalArgumentException("illegal range " + start + ".." + end);
+        source = null;
+        segmentStart = start;
+        readPosition = start;
+        this.skipTrailingWhitespace = skipTrailingWhitespace;
+        this.mapped = mapped;
+        this.segmentSize = segmentSize;
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocateDirect(mapped ? 0 : BUFFER_SIZE);
+        bytes.flip();
+        chars = CharBuffer.allocate(BUFFER_SIZE);
+        chars.flip();
+        underflow = true;
+    }
+
+    /** Constructs a corpus reader of the characters of the given Reader.
+     *  Like In, isEmpty() returns true when only whitespace is left. */
+    public CorpusReader(Reader source) {
+        if (source == null) throw new IllegalArgumentException("argument is null");
+        this.source = source;
+        channel = null;
+        end = 0;
+        mapped = false;
+        segmentSize = SEGMENT_SIZE;
+        skipTrailingWhitespace = true;
+        decoder = null;
+        chars = CharBuffer.allocate(BUFFER_SIZE);
+        chars.flip();
+    }
+
+    /** Constructs a corpus reader of the characters of the given text.
+     *  Like In, isEmpty() returns true when only whitespace is left. */
+    public CorpusReader(CharSequence text) {
+        if (text == null) throw new IllegalArgumentException("argument is null");
+        source = null;
+        channel = null;
+        end = 0;
+        mapped = false;
+        segmentSize = SEGMENT_SIZE;
+        skipTrailingWhitespace = true;
+        decoder = null;
+        // all the characters are already in the buffer (which is read-only)
+        chars = CharBuffer.wrap(text);
+        eof = true;
+    }
+
+    /** Returns true if there are no more characters to read (except possibly whitespace,
+     *  if this reader skips trailing whitespace). */
+    public boolean isEmpty() {
+        if (!skipTrailingWhitespace) return !hasNextChar();
+        if (nonWhitespaceAhead > 0) return false;
+        if (channel != null && nonWhitespacePosition >= undecodedPosition()) return false;
+
+        // look ahead for a character that is not a whitespace in the decoded characters
+        int offset = 0;
+        while (true) {
+            for (; chars.position() + offset < chars.limit(); offset++) {
+                if (!Character.isWhitespace(chars.get(chars.position() + offset))) {
+                    nonWhitespaceAhead = offset + 1;
+                    return false;
+                }
+            }
+
+            // the bytes of a file are scanned without decoding them, so a long run of
+            // whitespace is not kept in the char buffer
+            if (channel != null) {
+                nonWhitespacePosition = findNonWhitespace(undecodedPosition());
+                return nonWhitespacePosition == -1;
+            }
+
+            // the characters of a Reader are buffered, as long as only whitespace is found
+            if (!fill()) return true;
+        }
+    }
+
+    /** Returns true if there is at least one more character to read (including whitespace). */
+    public boolean hasNextChar() {
+        return chars.hasRemaining() || fill();
+    }
+
+    /** Reads and returns the next character of the file.
+     *  @throws NoSuchElementException if all the characters were read */
+    public char readChar() {
+        if (!chars.hasRemaining() && !fill()) {
+            throw new NoSuchElementException("attempts to read a 'char' value from the input stream, "
+                                           + "but no more tokens are available");
+        }
+        if (nonWhitespaceAhead > 0) nonWhitespaceAhead--;
+        return chars.get();
+    }
+
+    /** Closes the file (or the Reader) of this reader. */
+    public void close() {
+        try {
+            if (channel != null) channel.close();
+            if (source != null) source.close();
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not close the corpus file", ioe);
+        }
+    }
+
+    /** Splits the given file into (at most) the given number of ranges of bytes, for readers
+     *  that read the file in parallel. Returns the positions of the boundaries of the ranges,
+     *  starting with 0 and ending with the size of the file. Each range (except the last one)
+     *  is at least minSize bytes long, and ends right after an ASCII character that is not
+     *  a whitespace, so the boundaries are at the beginning of UTF-8 characters, and only
+     *  the last range can end with the trailing whitespace of the file. */
+    public static long[] split(String fileName, int parts, long minSize) {
+        if (parts < 1) throw new IllegalArgumentException("illegal number of parts " + parts);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            long size = channel.size();
+            long[] boundaries = new long[parts + 1];
+            int count = 1;
+            ByteBuffer block = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int k = 1; k < parts; k++) {
+                long target = Math.max(size * k / parts, boundaries[count - 1] + minSize);
+
+                // look for an ASCII character that is not a whitespace, starting at the target
+                long boundary = -1;
+                for (long position = target; boundary == -1 && position < size - minSize; position += block.limit()) {
+                    block.clear();
+                    if (channel.read(block, position) <= 0) break;
+                    block.flip();
+                    for (int i = 0; i < block.limit(); i++) {
+                        byte b = block.get(i);
+                        if (b > ' ' && b < 0x7f) {
+                            boundary = position + i + 1;
+                            break;
+                        }
+                    }
+                }
+                if (boundary == -1 || boundary > size - minSize) break;
+                boundaries[count++] = boundary;
+            }
+            boundaries[count++] = size;
+            long[] result = new long[count];
+            System.arraycopy(boundaries, 0, result, 0, count);
+            return result;
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+    }
+
+    // Returns the position in the file of the first byte that was not decoded yet
+    private long undecodedPosition() {
+        return mapped ? segmentStart + bytes.position() : readPosition - bytes.remaining();
+    }
+
+    // Returns the position in the file of the first byte of the first character that is not
+    // a whitespace, at or after the given position (which is at the beginning of a character),
+    // or -1 if only whitespace is left up to the end of the range.
+    private long findNonWhitespace(long position) {
+        if (lookahead == null) {
+            lookahead = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        try {
+            return findNonWhitespace(channel, position, end, lookahead);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not read the corpus file", ioe);
+        }
+    }
+
+    // Returns the position in the given UTF-8 file of the first byte of the first character that
+    // is not a whitespace, at or after the given position (which is at the beginning of a character)
+    // and before the given end, or -1 if there is none. The bytes are read block by block into
+    // the given lookahead buffer, and are not decoded, so a long run of whitespace is not kept.
+    static long findNonWhitespace(FileChannel channel, long position, long end, ByteBuffer lookahead)
+            throws IOException {
+        int blockSize = lookahead.capacity();
+        while (position < end) {
+            lookahead.clear();
+            lookahead.limit((int) Math.min(blockSize, end - position));
+            int n = channel.read(lookahead, position);
+            if (n <= 0) return -1;
+            int i = 0;
+            while (i < n) {
+                int b = lookahead.get(i) & 0xff;
+                if (b < 0x80) {
+                    if (!Character.isWhitespace(b)) return position + i;
+                    i++;
+                }
+                else if ((b & 0xf0) == 0xe0) {
+                    // the whitespace characters that are not ASCII are all encoded in 3 bytes;
+                    // a character that is cut by the end of the block is read again in the next one
+                    if (i + 2 >= n) {
+                        if (position + n < end) break;
+                        return position + i;
+                    }
+                    int b1 = lookahead.get(i + 1) & 0xff;
+                    int b2 = lookahead.get(i + 2) & 0xff;
+                    int codePoint = ((b & 0x0f) << 12) | ((b1 & 0x3f) << 6) | (b2 & 0x3f);
+                    if ((b1 & 0xc0) != 0x80 || (b2 & 0xc0) != 0x80 || codePoint < 0x800
+                            || !Character.isWhitespace(codePoint)) {
+                        return position + i;
+                    }
+                    i += 3;
+                }
+                else {
+                    // a character of 2 or 4 bytes, or a malformed one (decoded as U+FFFD)
+                    return position + i;
+                }
+            }
+            position += i;
+        }
+        return -1;
+    }
+
+    // Decodes more characters into the char buffer, keeping the unread ones.
+    // Returns false if the end of the file was reached, and nothing was added.
+    private boolean fill() {
+        if (eof) return false;
+
+        // move the unread chars to the beginning of the buffer
+        chars.compact();
+        int start = chars.position();
+        if (source != null) {
+            readChars(start);
+            chars.flip();
+            return chars.limit() > start;
+        }
+        boolean overflow = false;
+        while (chars.position() == start && !eof) {
+
+            // the buffer is full of unread chars, or has no room for the next decoded char
+            if (!chars.hasRemaining() || overflow) {
+                chars = grow(chars);
+            }
+
+            // read the next block of the file, only if all the previous one was decoded
+            if (underflow && !endOfInput) {
+                readBytes();
+            }
+
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            underflow = result.isUnderflow();
+            overflow = result.isOverflow();
+            if (underflow && endOfInput) {
+                decoder.flush(chars);
+                eof = true;
+            }
+        }
+        chars.flip();
+        return chars.limit() > start;
+    }
+
+    // Reads characters from the Reader into the char buffer (in write mode), until at least
+    // one character was read after the given position, or the end of the Reader was reached
+    private void readChars(int start) {
+        try {
+            while (chars.position() == start && !eof) {
+                if (!chars.hasRemaining()) {
+                    chars = grow(chars);
+                }
+                if (source.read(chars) < 0) {
+                    eof = true;
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not read the corpus", ioe);
+        }
+    }
+
+    // Reads the next block of the file into the byte buffer
+    private void readBytes() {
+        if (mapped) {
+            mapNextSegment();
+            return;
+        }
+        bytes.compact();
+        try {
+            // read up to the end of the range
+            bytes.limit(bytes.position() + (int) Math.min(bytes.remaining(), end - readPosition));
+            int n = channel.read(bytes, readPosition);
+            if (n < 0 || readPosition + n >= end) {
+                endOfInput = true;
+            }
+            if (n > 0) {
+                readPosition += n;
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not read the corpus file", ioe);
+        }
+        bytes.flip();
+    }
+
+    // Maps the next segment of the file. The segment starts at the first byte that was not
+    // decoded yet, so the bytes of a character that was cut by the end of the previous segment
+    // are mapped again, and decoded as a whole.
+    private void mapNextSegment() {
+        try {
+            segmentStart += bytes.position();
+            long size = Math.min(segmentSize, end - segmentStart);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, size);
+            if (segmentStart + size == end) {
+                endOfInput = true;
+            }
+            bytes = segment;
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Could not map the corpus file", ioe);
+        }
+    }
+
+    // Returns a buffer with twice the capacity of the given buffer (in write mode),
+    // and with the same content
+    private static CharBuffer grow(CharBuffer buffer) {
+        CharBuffer bigger = CharBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+/** A compact list of characters and their counts, with the same API as List.
+ *  The list keeps only a char and an int count for each character, and the total of the
+ *  counts, instead of a CharData object with a probability and a cumulative probability.
+ *  The probabilities are derived from the counts when they are needed: the CharData objects
+ *  returned by get(), getFirst() and toArray() are views, created with the probabilities
+ *  computed like in LanguageModel.calculateProbabilities, and changing them does not change
+ *  the list. Therefore a count list does not need its probabilities to be calculated,
+ *  but, like a List, it prints them only after they were calculated.
+ *  Like in ArrayCharList, the elements are stored in reverse order.
+ *  As a FollowerStore, the list holds the followers of one context, whose ids are their
+ *  positions in the arrays, so it is sampled and printed like the other follower stores. */
+public class CountList extends List implements FollowerStore {
+
+    // The initial capacity of the arrays of a list
+    private static final int INITIAL_CAPACITY = 2;
+
+    // The characters of the elements, in reverse order
+    private char[] chrs;
+
+    // The counts of the elements, in reverse order
+    private int[] counts;
+
+    // The number of elements in this list
+    private int size;
+
+    // The sum of the counts of the elements
+    private int total;
+
+    /** Constructs an empty list. */
+    public CountList() {
+        chrs = new char[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /** Returns the number of elements in this list. */
+    public int getSize() {
+        return size;
+    }
+
+    /** Returns the sum of the counts of the elements in this list. */
+    public int getTotal() {
+        return total;
+    }
+
+    /** Returns (a view of) the first element in the list */
+    public CharData getFirst() {
+        return get(0);
+    }
+
+    /** Adds a character with count 1 to the beginning of this list. */
+    public void addFirst(char chr) {
+        addFirst(chr, 1);
+    }
+
+    /** Adds a character with the given count to the beginning of this list. */
+    public void addFirst(char chr, int count) {
+        if (size == chrs.length) {
+            chrs = Arrays.copyOf(chrs, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        chrs[size] = chr;
+        counts[size] = count;
+        size++;
+        total += count;
+        sampler = null;
+        dirty = true;
+    }
+
+    /** Textual representation of this list. Like in a List, the probabilities are printed
+     *  as 0.0 until LanguageModel.calculateProbabilities is called on the list. */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        FollowerStore.appendFollowers(result, this, 0, total, !dirty);
+        return result.toString();
+    }
+
+    /** Returns the index of the first element in this list that has the given char,
+     *  or -1 if there is no such element in this list. */
+    public int indexOf(char chr) {
+        int i = position(chr);
+        return i == -1 ? -1 : size - 1 - i;
+    }
+
+    /** If the given character exists in this list, increments its counter.
+     *  Otherwise, adds the given chr to the beginning of this list. */
+    public void update(char chr) {
+        update(chr, 1);
+    }
+
+    /** If the given character exists in this list, adds the given count to its counter.
+     *  Otherwise, adds the given chr and count to the beginning of this list. */
+    public void update(char chr, int count) {
+        int i = position(chr);
+        if (i == -1) {
+            addFirst(chr, count);
+        }
+        else {
+            counts[i] += count;
+            total += count;
+            sampler = null;
+            dirty = true;
+        }
+    }
+
+    /** Like update(chr), but if the given character exists in this list, it also swaps it
+     *  with the element before it (see List.updateTranspose). */
+    public void updateTranspose(char chr) {
+        int i = position(chr);
+        if (i == -1) {
+            addFirst(chr, 1);
+            return;
+        }
+        counts[i]++;
+        total++;
+        // the element before it in the list is the next one in the arrays
+        if (i < size - 1) {
+            char c = chrs[i];
+            chrs[i] = chrs[i + 1];
+            chrs[i + 1] = c;
+            int count = counts[i];
+            counts[i] = counts[i + 1];
+            counts[i + 1] = count;
+        }
+        sampler = null;
+        dirty = true;
+    }
+
+    /** Sorts the elements of this list by their counts, from the largest to the smallest.
+     *  Elements with the same count are sorted by their chars, so the sorted order depends
+     *  only on the counts, and not on the order of the list before the sort. */
+    public void sortByCount() {
+        // an insertion sort of the arrays (which are in reverse order), since lists are short
+        for (int i = size - 2; i >= 0; i--) {
+            char c = chrs[i];
+            int count = counts[i];
+            int j = i;
+            for (; j < size - 1 && (counts[j + 1] < count || (counts[j + 1] == count && chrs[j + 1] > c)); j++) {
+                chrs[j] = chrs[j + 1];
+                counts[j] = counts[j + 1];
+            }
+            chrs[j] = c;
+            counts[j] = count;
+        }
+        sampler = null;
+        dirty = true;
+    }
+
+    /** If the given character exists in this list, removes it from the list and returns
+     *  true. Otherwise, returns false. */
+    public boolean remove(char chr) {
+        int i = position(chr);
+        if (i == -1) {
+            return false;
+        }
+        total -= counts[i];
+        System.arraycopy(chrs, i + 1, chrs, i, size - 1 - i);
+        System.arraycopy(counts, i + 1, counts, i, size - 1 - i);
+        size--;
+        sampler = null;
+        dirty = true;
+        return true;
+    }
+
+    /** Returns a view of the element at the specified index in this list.
+     *  If the index is negative or is greater than the size of this list,
+     *  throws an IndexOutOfBoundsException. */
+    public CharData get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException();
+        }
+        // the cumulative probability is the sum of the probabilities of the elements up to the index
+        double cp = 0;
+        for (int i = size - 1; i >= size - 1 - index; i--) {
+            cp += (double) counts[i] / total;
+        }
+        return view(size - 1 - index, cp);
+    }
+
+    /** Returns an array of views of all the elements in this list. */
+    public CharData[] toArray() {
+        CharData[] arr = new CharData[size];
+        double cp = 0;
+        for (int i = 0; i < size; i++) {
+            cp += (double) counts[size - 1 - i] / total;
+            arr[i] = view(size - 1 - i, cp);
+        }
+        return arr;
+    }
+
+    /** Returns an iterator over (views of) the elements in this list, starting at the given index. */
+    public ListIterator listIterator(int index) {
+        // If the list is empty, there is nothing to iterate
+        if (size == 0) return null;
+        return new ListIterator(toArray(), index);
+    }
+
+    /** Returns a character of this list, chosen by the given random number (between 0 and 1):
+     *  the first character whose cumulative probability is greater than r, like
+     *  LanguageModel.getRandomChar chooses from a list with calculated probabilities.
+     *  Returns '^' if there is no such character. */
+    public char sample(double r) {
+        int i = (int) FollowerStore.sampleFollower(this, 0, total, r);
+        if (i == -1) {
+            lastScan = size;
+            return '^';
+        }
+        lastScan = size - i;
+        return chrs[i];
+    }
+
+    /** Returns the position in the arrays of the first element (the context is ignored),
+     *  or -1 if the list is empty. */
+    public long firstFollower(int context) {
+        return size - 1;
+    }
+
+    /** Returns the position in the arrays of the element after the element at the given
+     *  position (the context is ignored), or -1 if it is the last one. */
+    public long nextFollower(int context, long follower) {
+        return follower - 1;
+    }
+
+    /** Returns the character at the given position in the arrays. */
+    public char followerChar(long follower) {
+        return chrs[(int) follower];
+    }
+
+    /** Returns the count at the given position in the arrays. */
+    public int followerCount(long follower) {
+        return counts[(int) follower];
+    }
+
+    // Returns a CharData object with the character and count at the given position in the arrays,
+    // and the given cumulative probability
+    private CharData view(int i, double cp) {
+        CharData c = new CharData(chrs[i]);
+        c.count = counts[i];
+        c.p = (double) counts[i] / total;
+        c.cp = cp;
+        return c;
+    }
+
+    // Returns the position in the arrays of the given character
+    // (scanning from the first element of the list), or -1 if it is not in the list
+    private int position(char chr) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (chrs[i] == chr) {
+                lastScan = size - i;
+                return i;
+            }
+        }
+        lastScan = size;
+        return -1;
+    }
+}
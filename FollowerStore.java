@@ -0,0 +1,62 @@
+/** A store of the followers of contexts (the characters that follow each context, and their
+ *  counts), like the flat follower stores of ContextTable and ContextTrie. The followers of a
+ *  context are walked from the first one to the last one, in the order of the List of the context
+ *  in a LanguageModel, by long ids that the store chooses.
+ *  The followers of all the stores are sampled and printed by the static methods of this
+ *  interface, which compute the probabilities like LanguageModel.calculateProbabilities, so all
+ *  the stores give the same texts (and the same textual representation) as a LanguageModel. */
+interface FollowerStore {
+
+    /** Returns the id of the first follower of the given context, or -1 if it has none. */
+    long firstFollower(int context);
+
+    /** Returns the id of the follower of the given context that comes after the given one,
+     *  or -1 if the given one is the last one. */
+    long nextFollower(int context, long follower);
+
+    /** Returns the character of the given follower. */
+    char followerChar(long follower);
+
+    /** Returns the count of the given follower. */
+    int followerCount(long follower);
+
+    /** Returns a follower of the given context, whose counts sum to the given total, chosen by
+     *  the given random number (between 0 and 1): the cumulative probabilities of the followers
+     *  are computed like in LanguageModel.calculateProbabilities, and the first follower whose
+     *  cumulative probability is greater than r is returned, like in LanguageModel.getRandomChar.
+     *  Returns '^' if there is no such follower. */
+    static char sample(FollowerStore store, int context, int total, double r) {
+        long f = sampleFollower(store, context, total, r);
+        return (f == -1) ? '^' : store.followerChar(f);
+    }
+
+    /** Returns the id of the follower that sample returns the character of,
+     *  or -1 if there is no such follower. */
+    static long sampleFollower(FollowerStore store, int context, int total, double r) {
+        double cp = 0;
+        for (long f = store.firstFollower(context); f != -1; f = store.nextFollower(context, f)) {
+            cp += (double) store.followerCount(f) / total;
+            if (cp > r) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /** Appends the followers of the given context, whose counts sum to the given total, to the
+     *  given text, in the format of List.toString(). If the probabilities were not calculated yet,
+     *  they are printed as 0, like in a List. */
+    static void appendFollowers(StringBuilder str, FollowerStore store, int context, int total, boolean calculated) {
+        double cp = 0;
+        str.append('(');
+        for (long f = store.firstFollower(context); f != -1; ) {
+            int count = store.followerCount(f);
+            double p = calculated ? (double) count / total : 0;
+            cp += p;
+            str.append(CharData.toString(store.followerChar(f), count, p, cp));
+            f = store.nextFollower(context, f);
+            if (f != -1) str.append(' ');
+        }
+        str.append(')');
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/** A Reader of a text that a language model generates. The characters are generated lazily,
+ *  only when they are read, so a consumer gets the first characters immediately, paces the
+ *  generation by the rate of its reads, and can stop it early by closing the reader.
+ *  The text is the same text that LanguageModel.generate() returns: first the initial text,
+ *  and then the generated characters, drawn with the random number generator of the model.
+ *  A reader is not thread safe, and must be read by one thread at a time. */
+public class GeneratedTextReader extends Reader {
+
+    // The model that generates the text
+    private final LanguageModel model;
+
+    // The initial text, and the index of its next character to read
+    private final String initialText;
+    private int initialPosition;
+
+    // The number of characters that are left to generate (negative if there is no limit)
+    private long remaining;
+
+    // The window of the last characters of the text
+    private final RollingWindow window;
+
+    // True if no more characters can be generated
+    private boolean ended;
+
+    // True if this reader was closed
+    private boolean closed;
+
+    /** Constructs a reader of a text that the given model generates from the given initial text.
+     *  If textLength is negative, the text has no limit, and characters are generated for as
+     *  long as they are read (or until a window that has no list is reached). */
+    GeneratedTextReader(LanguageModel model, String initialText, long textLength) {
+        this.model = model;
+        this.initialText = initialText;
+        this.remaining = textLength;
+        window = new RollingWindow(model.windowLength);
+        if (initialText.length() < model.windowLength) {
+            ended = true;
+        }
+        else {
+            window.set(initialText);
+        }
+    }
+
+    /** Reads characters of the text into the given part of the given array, generating them
+     *  as needed. Returns the number of characters that were read, or -1 at the end of the text. */
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (offset < 0 || length < 0 || offset + length > buffer.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (length == 0) return 0;
+
+        // read the rest of the initial text
+        int n = 0;
+        while (n < length && initialPosition < initialText.length()) {
+            buffer[offset + n++] = initialText.charAt(initialPosition++);
+        }
+
+        // generate the next chars
+        while (n < length && !ended && remaining != 0) {
+            List l = model.CharDataMap.get(window);
+            if (l == null) {
+                ended = true;
+                break;
+            }
+            char c = model.getRandomChar(l);
+            buffer[offset + n++] = c;
+            window.add(c);
+            if (remaining > 0) remaining--;
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+    /** Closes this reader. No more characters are generated. */
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of generated texts, for a LanguageModel that generates texts with given
+ *  seeds (see LanguageModel.setCache). The text that a model generates with a seed depends
+ *  only on the last window of the initial text, the length, the seed, and the model, so
+ *  a text is kept under its (window, length, seed), and a repeated request is answered
+ *  without generating the text again. The cache holds at most a given number of texts,
+ *  and at most a given number of chars in all of them, and evicts the least recently used
+ *  texts first. The model clears its cache whenever it changes (when it is trained, appended
+ *  to, or loaded). The cache counts its hits and misses, and is thread safe. */
+public class GenerationCache {
+
+    // The most texts, and the most chars in all the texts, that this cache holds
+    private final int maxEntries;
+    private final long maxChars;
+
+    // The cached texts, in the order of their last use (the least recently used first)
+    private final LinkedHashMap<String, String> texts = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+    // The number of chars in all the cached texts
+    private long chars;
+
+    // The number of lookups that found a text, and that did not
+    private long hits;
+    private long misses;
+
+    /** Constructs a cache of at most the given number of texts, with no limit on their chars. */
+    public GenerationCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE);
+    }
+
+    /** Constructs a cache of at most the given number of texts,
+     *  and at most the given number of chars in all of them. */
+    public GenerationCache(int maxEntries, long maxChars) {
+        if (maxEntries < 1 || maxChars < 1) throw new IllegalArgumentException("the cache must hold at least one text");
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /** Returns the text that was generated after the given window, with the given length and seed,
+     *  or null if this cache does not have it. */
+    public synchronized String get(CharSequence window, int textLength, long seed) {
+        String text = texts.get(key(window, textLength, seed));
+        if (text == null) {
+            misses++;
+        }
+        else {
+            hits++;
+        }
+        return text;
+    }
+
+    /** Keeps the text that was generated after the given window, with the given length and seed,
+     *  and evicts the least recently used texts if this cache is over its limits.
+     *  A text that is longer than the limit of chars is not kept. */
+    public synchronized void put(CharSequence window, int textLength, long seed, String text) {
+        if (text.length() > maxChars) return;
+        String previous = texts.put(key(window, textLength, seed), text);
+        chars += text.length() - (previous == null ? 0 : previous.length());
+        Iterator<Map.Entry<String, String>> eldest = texts.entrySet().iterator();
+        while (texts.size() > maxEntries || chars > maxChars) {
+            chars -= eldest.next().getValue().length();
+            eldest.remove();
+        }
+    }
+
+    /** Removes all the texts from this cache (the hit and miss counters are kept). */
+    public synchronized void clear() {
+        texts.clear();
+        chars = 0;
+    }
+
+    /** Returns the number of texts in this cache. */
+    public synchronized int size() {
+        return texts.size();
+    }
+
+    /** Returns the number of chars in all the texts in this cache. */
+    public synchronized long getChars() {
+        return chars;
+    }
+
+    /** Returns the number of lookups that found a text. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not find a text. */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Returns the key of the given window, length and seed
+    // (the window is last, so the key is unambiguous)
+    private static String key(CharSequence window, int textLength, long seed) {
+        return textLength + ":" + seed + ":" + window;
+    }
+}
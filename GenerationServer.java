@@ -0,0 +1,148 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** A local HTTP service that generates texts from a language model, which is trained or
+ *  loaded once, when the service starts. The service answers GET /generate?prompt=&len=&seed=
+ *  with the text that the model generates from the prompt (as text/plain, in UTF-8).
+ *  len is the number of chars to generate (100 by default), and seed is the seed of the
+ *  random number generator of the request (a random seed by default), so a request with
+ *  a seed always gets the same text.
+ *  The service generates from a FrozenLanguageModel, which needs no locks, and handles
+ *  each request in its own virtual thread, so it serves many concurrent requests with
+ *  a few carrier threads. It listens on the loopback address only.
+ *  main turns off Nagle's algorithm for the HTTP servers of the JVM; a program that creates
+ *  a service by itself should be run with -Dsun.net.httpserver.nodelay=true to do the same.
+ *  Usage: java GenerationServer port modelFile            (a model saved by LanguageModel.save)
+ *         java GenerationServer port windowLength corpusFile */
+public class GenerationServer {
+
+    // The longest text that a request can ask for
+    static final int MAX_TEXT_LENGTH = 1 << 20;
+
+    // The model that the texts are generated from
+    private final FrozenLanguageModel model;
+
+    // The HTTP server, and the executor of its requests
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /** Constructs a service of the given model, on the given port of the loopback address
+     *  (0 for any free port). The service does not accept requests until it is started. */
+    public GenerationServer(FrozenLanguageModel model, int port) {
+        this.model = model;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not listen on port " + port, ioe);
+        }
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/generate", this::handleGenerate);
+    }
+
+    /** Starts accepting requests. */
+    public void start() {
+        server.start();
+    }
+
+    /** Stops accepting requests, and waits (at most a second) for the current ones to end. */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /** Returns the port that this service listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) {
+        // send the small responses right away, instead of waiting for the ACK of the
+        // previous segment (with Nagle's algorithm, a request takes about 40 ms).
+        // The JDK's HTTP server reads this property once, before its first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        int port = Integer.parseInt(args[0]);
+        LanguageModel lm;
+        if (args.length > 2) {
+            lm = new LanguageModel(Integer.parseInt(args[1]));
+            lm.train(args[2]);
+        }
+        else {
+            lm = new LanguageModel(1);
+            lm.load(args[1]);
+        }
+        GenerationServer service = new GenerationServer(lm.freeze(), port);
+        service.start();
+        System.out.println("Serving http://localhost:" + service.getPort() + "/generate?prompt=&len=&seed=");
+    }
+
+    // Answers a request for a generated text
+    private void handleGenerate(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, "only GET is supported\n");
+                return;
+            }
+            HashMap<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String prompt = parameters.get("prompt");
+            if (prompt == null) {
+                respond(exchange, 400, "missing parameter: prompt\n");
+                return;
+            }
+            int length;
+            long seed;
+            try {
+                length = Integer.parseInt(parameters.getOrDefault("len", "100"));
+                seed = parameters.containsKey("seed") ? Long.parseLong(parameters.get("seed")) : ThreadLocalRandom.current().nextLong();
+            }
+            catch (NumberFormatException e) {
+                respond(exchange, 400, "illegal number: " + e.getMessage() + "\n");
+                return;
+            }
+            if (length < 0 || length > MAX_TEXT_LENGTH) {
+                respond(exchange, 400, "len must be between 0 and " + MAX_TEXT_LENGTH + "\n");
+                return;
+            }
+            respond(exchange, 200, model.generate(prompt, length, seed));
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    // Sends the given text as the response to the given request
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Returns the parameters of the given query string (which may be null), decoded from UTF-8
+    private static HashMap<String, String> parseQuery(String query) {
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals == -1 ? pair : pair.substring(0, equals);
+            String value = equals == -1 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.concurrent.atomic.AtomicReference;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** Model metrics that are recorded as custom JFR events, so they appear in a flight recording
+ *  next to the GC and CPU events of the JVM (for example, with
+ *  java -XX:StartFlightRecording:filename=rec.jfr ...). A training and a generation are one event
+ *  each. A list scan or a sample scan is an event only if it is at least as long as the threshold,
+ *  so the events point at the hot contexts, whose lists are long, without an event for each char.
+ *  The number of followers of the contexts is collected in a histogram during a training, and is
+ *  recorded at its end as a ContextFollowers event for each bucket of the histogram.
+ *  When the events are not enabled in the recording, nothing is committed. */
+public class JfrMetrics implements ModelMetrics {
+
+    // The shortest scan that is recorded as an event
+    private final int scanThreshold;
+
+    // The numbers of followers of the contexts of the current training
+    private final AtomicReference<MetricsRecorder.Histogram> followers =
+            new AtomicReference<MetricsRecorder.Histogram>(new MetricsRecorder.Histogram());
+
+    /** Constructs metrics that record the scans of at least 32 elements. */
+    public JfrMetrics() {
+        this(32);
+    }
+
+    /** Constructs metrics that record the scans of at least the given number of elements. */
+    public JfrMetrics(int scanThreshold) {
+        this.scanThreshold = scanThreshold;
+    }
+
+    public void trainCompleted(long chars, long nanos, int contexts) {
+        TrainEvent event = new TrainEvent();
+        if (event.isEnabled()) {
+            event.chars = chars;
+            event.trainingTime = nanos;
+            event.contexts = contexts;
+            event.charsPerSecond = nanos == 0 ? 0 : chars * 1e9 / nanos;
+            event.commit();
+        }
+
+        // record the distribution of the followers of the training (bucket k of the histogram
+        // counts the contexts with 2^(k-1) to 2^k - 1 followers)
+        MetricsRecorder.Histogram histogram = followers.getAndSet(new MetricsRecorder.Histogram());
+        for (int k = 0; k < 64 && histogram.getCount() > 0; k++) {
+            long count = histogram.getBucketCount(k);
+            if (count == 0) continue;
+            ContextFollowersEvent followersEvent = new ContextFollowersEvent();
+            if (!followersEvent.isEnabled()) return;
+            followersEvent.minFollowers = (k == 0) ? 0 : 1 << (k - 1);
+            followersEvent.maxFollowers = (k == 0) ? 0 : (1 << k) - 1;
+            followersEvent.contexts = count;
+            followersEvent.commit();
+        }
+    }
+
+    public void contextFollowers(int followers) {
+        this.followers.get().record(followers);
+    }
+
+    public void listScanned(CharSequence context, int length) {
+        if (length < scanThreshold) return;
+        ListScanEvent event = new ListScanEvent();
+        if (event.isEnabled()) {
+            event.context = context.toString();
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    public void charSampled(int depth) {
+        if (depth < scanThreshold) return;
+        SampleScanEvent event = new SampleScanEvent();
+        if (event.isEnabled()) {
+            event.depth = depth;
+            event.commit();
+        }
+    }
+
+    public void generateCompleted(int chars, long nanos) {
+        GenerateEvent event = new GenerateEvent();
+        if (event.isEnabled()) {
+            event.chars = chars;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    @Name("languagemodel.Train")
+    @Label("Train")
+    @Category("Language Model")
+    @Description("A training of a language model")
+    static class TrainEvent extends Event {
+        @Label("Chars")
+        long chars;
+
+        @Label("Training Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long trainingTime;
+
+        @Label("Contexts")
+        int contexts;
+
+        @Label("Chars Per Second")
+        double charsPerSecond;
+    }
+
+    @Name("languagemodel.ContextFollowers")
+    @Label("Context Followers")
+    @Category("Language Model")
+    @Description("The number of contexts whose number of followers is in a range, at the end of a training")
+    static class ContextFollowersEvent extends Event {
+        @Label("Min Followers")
+        int minFollowers;
+
+        @Label("Max Followers")
+        int maxFollowers;
+
+        @Label("Contexts")
+        long contexts;
+    }
+
+    @Name("languagemodel.ListScan")
+    @Label("List Scan")
+    @Category("Language Model")
+    @Description("A long scan of the list of a context, while counting a char")
+    static class ListScanEvent extends Event {
+        @Label("Context")
+        String context;
+
+        @Label("Scanned Elements")
+        int length;
+    }
+
+    @Name("languagemodel.SampleScan")
+    @Label("Sample Scan")
+    @Category("Language Model")
+    @Description("A long scan of a list, while drawing a random char")
+    static class SampleScanEvent extends Event {
+        @Label("Scanned Elements")
+        int depth;
+    }
+
+    @Name("languagemodel.Generate")
+    @Label("Generate")
+    @Category("Language Model")
+    @Description("A generation of a random text")
+    static class GenerateEvent extends Event {
+        @Label("Generated Chars")
+        int chars;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
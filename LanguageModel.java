@@ -1,7 +1,28 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class LanguageModel {
+public class LanguageModel implements TextGenerator {
+
+    // The first int of a model file ("LMDL"), and the version of the format of model files
+    static final int MODEL_FILE_MAGIC = 0x4C4D444C;
+    static final int MODEL_FILE_VERSION = 1;
 
     // The map of this model.
     // Maps windows to lists of charachter data objects.
@@ -13,6 +34,42 @@ public class LanguageModel {
     // The random number generator used by this model. 
 	private Random randomGenerator;
 
+    /** The kinds of lists that can hold the characters that follow a context. */
+    public enum ListKind {
+        // linked lists of nodes (List)
+        LINKED,
+        // array based lists (ArrayCharList)
+        ARRAY,
+        // lists of chars and counts only, with derived probabilities (CountList)
+        COUNTS
+    }
+
+    // The kind of lists that this model creates for new contexts.
+    private ListKind listKind = ListKind.LINKED;
+
+    // The way this model draws random characters from lists.
+    private Sampler.Kind samplerKind = Sampler.Kind.LINEAR;
+
+    // If true, the probabilities of a list are computed when the list is first used,
+    // instead of at the end of the training.
+    private boolean lazyProbabilities;
+
+    // If true, the lists of this model keep their frequent chars near their beginning.
+    private boolean selfOrganizing;
+
+    // The metrics that this model reports its measures to (null if it is not measured).
+    private ModelMetrics metrics;
+
+    // The cache of the texts that this model generated with given seeds (null if there is none).
+    private GenerationCache cache;
+
+    // The window after the last char that was counted (null if the model has no window yet),
+    // and the chars that were read after it, but were not counted: the trailing whitespace of
+    // the corpus, or the first chars of the corpus, if they do not fill a window yet.
+    // trainAppend() continues the training from them.
+    private RollingWindow lastWindow;
+    private StringBuilder tail = new StringBuilder();
+
     /** Constructs a language model with the given window length and a given
      *  seed value. Generating texts from this model multiple times with the 
      *  same seed value will produce the same random texts. Good for debugging. */
@@ -31,17 +88,113 @@ public class LanguageModel {
         CharDataMap = new HashMap<String, List>();
     }
 
+    /** Sets the kind of lists that this model creates for new contexts.
+     *  Array based lists find a character in one pass over a char array and get an
+     *  element in constant time, which pays off for contexts with many followers.
+     *  Count lists keep only a char and a count for each character, and derive the
+     *  probabilities from the counts when they are needed, which saves memory in large models.
+     *  The kind of lists does not change the trained model or the generated texts. */
+    public void setListKind(ListKind listKind) {
+        this.listKind = listKind;
+    }
+
+    /** Sets the way this model draws random characters from lists (see Sampler).
+     *  With BINARY_SEARCH or ALIAS, a sampler is compiled for each list the first time
+     *  a character is drawn from it. LINEAR and BINARY_SEARCH produce the same texts
+     *  for the same seed, and ALIAS produces other texts. */
+    public void setSamplerKind(Sampler.Kind samplerKind) {
+        this.samplerKind = samplerKind;
+        // the texts that were generated with the previous sampler may differ
+        clearCache();
+    }
+
+    /** Sets whether this model computes the probabilities of its lists lazily. If it does,
+     *  training only counts chars, and the probabilities of a list are computed when
+     *  getRandomChar() first draws from it, and again if its counts were changed since.
+     *  This saves the pass over all the lists at the end of the training, for models whose
+     *  generation uses only a part of the lists. The model and the generated texts are the same. */
+    public void setLazyProbabilities(boolean lazyProbabilities) {
+        this.lazyProbabilities = lazyProbabilities;
+    }
+
+    /** Sets whether the lists of this model organize themselves by the frequency of their chars.
+     *  If they do, counting a char during training swaps it with the char before it in its list
+     *  (so frequent chars move towards the beginning of the list, and are found after a short
+     *  scan), and computing the probabilities of a list sorts it by count, from the largest
+     *  to the smallest, and then by char (so getRandomChar finds the likely chars first, and the
+     *  order of a list depends only on its counts, however it was trained). The probability of each
+     *  char is the same, but the order of the lists differs, so the generated texts differ
+     *  from those of a model whose lists keep the order of the first occurrences. */
+    public void setSelfOrganizing(boolean selfOrganizing) {
+        this.selfOrganizing = selfOrganizing;
+        clearCache();
+    }
+
+    /** Sets the metrics that this model reports the measures of its training and generation to
+     *  (see ModelMetrics), or null to stop measuring. */
+    public void setMetrics(ModelMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Sets the cache of the texts that this model generates with given seeds
+     *  (see generate(initialText, textLength, seed)), or null for no cache.
+     *  The cache is cleared when it is set, and whenever the model changes. */
+    public void setCache(GenerationCache cache) {
+        this.cache = cache;
+        clearCache();
+    }
+
+    // Clears the cache of this model (if it has one), since the model changes
+    private void clearCache() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    // Returns a new empty list, of the kind that this model uses
+    List newList() {
+        if (listKind == ListKind.ARRAY) return new ArrayCharList();
+        if (listKind == ListKind.COUNTS) return new CountList();
+        return new List();
+    }
+
     /** Builds a language model from the text in the given file (the corpus). */
 	public void train(String fileName) {
+        CorpusReader in = new CorpusReader(fileName);
+        train(in);
+        in.close();
+    }
+
+    /** Builds a language model from the text in the given file (the corpus),
+     *  by memory-mapping the file in segments instead of reading it.
+     *  Produces the same model as train(fileName), with a heap use that
+     *  does not depend on the size of the corpus. */
+    public void trainMapped(String fileName) {
+        trainMapped(fileName, CorpusReader.SEGMENT_SIZE);
+    }
+
+    // Builds a language model from the given file, mapped in segments of the given size
+    void trainMapped(String fileName, int segmentSize) {
+        CorpusReader in = new CorpusReader(fileName, true, segmentSize);
+        train(in);
+        in.close();
+    }
+
+    /** Builds a language model from the characters of the given corpus reader.
+     *  Like the In based loop it replaces, training stops when only whitespace
+     *  is left in the corpus. */
+    void train(CorpusReader in) {
+        clearCache();
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        long chars = 0;
 
         // set the initial window
-        String window = "";
+        RollingWindow window = new RollingWindow(windowLength);
         char c;
-        In in = new In(fileName);
 
         // read the initial window from the file
         for (int i = 0; i < windowLength; i++) {
-            window += in.readChar();
+            window.add(in.readChar());
         }
 
 
@@ -50,36 +203,294 @@ public class LanguageModel {
 
             // read the current char
             c = in.readChar();
-            List l = CharDataMap.get(window);
+            // add the char to the list of the window
+            count(CharDataMap, window, c);
+            chars++;
+            // set new window
+            window.add(c);
+        }
+
+        // keep the window and the trailing whitespace, for trainAppend()
+        lastWindow = window;
+        tail = readTail(in);
+
+        // iterate all the keys and calculate the probs of each list
+        calculateAllProbabilities();
+        if (metrics != null) {
+            reportTraining(chars, start);
+        }
+
+    }
+
+    /** Adds the text in the given file to the training of this model. The training continues
+     *  from the last window of the text that the model was trained on, so training on a text
+     *  and then appending another text builds the same model as training on the concatenation
+     *  of the texts. Only the probabilities of the lists that were changed are computed again,
+     *  so appending takes time proportional to the appended text. */
+    public void trainAppend(String fileName) {
+        CorpusReader in = new CorpusReader(fileName);
+        trainAppend(in);
+        in.close();
+    }
 
-            // add the current char to the empty list
-            if (l == null){
-                CharDataMap.put(window, new List());
+    /** Adds the text of the given Reader to the training of this model (see trainAppend(fileName)).
+     *  The reader is closed at the end. */
+    public void trainAppend(Reader reader) {
+        CorpusReader in = new CorpusReader(reader);
+        trainAppend(in);
+        in.close();
+    }
+
+    /** Adds the given text to the training of this model (see trainAppend(fileName)). */
+    public void trainAppendText(CharSequence text) {
+        trainAppend(new CorpusReader(text));
+    }
+
+    /** Adds the characters of the given corpus reader to the training of this model. */
+    void trainAppend(CorpusReader in) {
+        clearCache();
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        long chars = 0;
+
+        // the first chars of the corpus fill the first window, and are not counted
+        while (lastWindow == null) {
+            if (tail.length() == windowLength) {
+                lastWindow = new RollingWindow(windowLength);
+                lastWindow.set(tail);
+                tail.setLength(0);
+            }
+            else if (in.hasNextChar()) {
+                tail.append(in.readChar());
+            }
+            else {
+                return;
             }
+        }
 
-            // get the list of the window
-            l = CharDataMap.get(window);
-            // add the char to the list of the window
-            l.update(c);
+        // the lists that were changed (not collected if their probs are computed lazily)
+        HashSet<List> changed = lazyProbabilities ? null : new HashSet<List>();
+        if (!in.isEmpty()) {
+
+            // the whitespace at the end of the previous text is followed by more text,
+            // so it is counted now
+            for (int i = 0; i < tail.length(); i++) {
+                List l = count(CharDataMap, lastWindow, tail.charAt(i));
+                if (changed != null) changed.add(l);
+                lastWindow.add(tail.charAt(i));
+                chars++;
+            }
+            tail.setLength(0);
+
+            // read all the chars
+            while (!in.isEmpty()) {
+                char c = in.readChar();
+                List l = count(CharDataMap, lastWindow, c);
+                if (changed != null) changed.add(l);
+                lastWindow.add(c);
+                chars++;
+            }
+        }
 
-            // set new window
-            window = window.substring(1) + c;
+        // keep the trailing whitespace, in case more text is appended
+        tail.append(readTail(in));
+
+        // calculate the probs of the lists that were changed
+        if (changed != null) {
+            for (List probs : changed) {
+                calculateProbabilities(probs);
+            }
+        }
+        if (metrics != null) {
+            metrics.trainCompleted(chars, System.nanoTime() - start, CharDataMap.size());
+        }
+    }
 
+    // Reads the rest of the chars of the given corpus reader (the trailing whitespace)
+    private static StringBuilder readTail(CorpusReader in) {
+        StringBuilder rest = new StringBuilder();
+        while (in.hasNextChar()) {
+            rest.append(in.readChar());
+        }
+        return rest;
+    }
+
+    // Adds the given char to the list of the given window in the given map, and returns the list
+    private List count(Map<String, List> map, RollingWindow window, char c) {
 
+        // get the list of the window (the window is used as the key, without creating a String)
+        List l = map.get(window);
+
+        // add a new empty list for the window
+        if (l == null){
+            l = newList();
+            map.put(window.toString(), l);
+        }
+
+        // add the char to the list of the window
+        if (selfOrganizing) {
+            l.updateTranspose(c);
+        }
+        else {
+            l.update(c);
+        }
+        if (metrics != null) {
+            metrics.listScanned(window, l.lastScan);
+        }
+        return l;
+    }
+
+    /** Builds a language model from the text in the given file (the corpus), using the given
+     *  number of threads. The file is split into shards, and each shard is counted by a thread
+     *  into a map of its own. Each shard also counts the first windowLength chars of the
+     *  next shard, so no window is lost at the boundaries. The maps of the shards are then
+     *  merged in the order of the shards, so the model is the same as the one that
+     *  train(fileName) builds (including the order of the keys and of the lists; self-organizing
+     *  lists are transposed in another order while they are counted, but their final order
+     *  depends only on their counts). The number of threads must be at least 1. */
+    public void trainParallel(String fileName, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("illegal number of threads " + threads);
+        clearCache();
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        long chars = 0;
+        final long[] bounds = CorpusReader.split(fileName, threads, Math.max(1 << 16, 4L * (windowLength + 1)));
+        int shards = bounds.length - 1;
+        if (shards == 1) {
+            train(fileName);
+            return;
+        }
+
+        // count each shard in a thread
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, shards));
+        ArrayList<Future<Map<String, List>>> results = new ArrayList<Future<Map<String, List>>>();
+        for (int i = 0; i < shards; i++) {
+            final int shard = i;
+            results.add(executor.submit(new Callable<Map<String, List>>() {
+                public Map<String, List> call() {
+                    return countShard(fileName, bounds, shard);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // merge the maps of the shards, in order
+        try {
+            for (Future<Map<String, List>> result : results) {
+                for (Map.Entry<String, List> entry : result.get().entrySet()) {
+                    List l = CharDataMap.get(entry.getKey());
+                    if (l == null){
+                        l = newList();
+                        CharDataMap.put(entry.getKey(), l);
+                    }
+                    // add the chars from the last one of the shard's list (its first occurrence)
+                    // to the first one, so the merged list has the same order as in train()
+                    CharData[] shardList = entry.getValue().toArray();
+                    for (int j = shardList.length - 1; j >= 0; j--) {
+                        l.update(shardList[j].chr, shardList[j].count);
+                        chars += shardList[j].count;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training", e);
+        }
+        catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Could not train from " + fileName, e.getCause());
         }
 
         // iterate all the keys and calculate the probs of each list
+        calculateAllProbabilities();
+        if (metrics != null) {
+            reportTraining(chars, start);
+        }
+    }
+
+    // Reports the measures of a training that counted the given number of chars,
+    // and started at the given time, to the metrics of this model
+    private void reportTraining(long chars, long start) {
+        long nanos = System.nanoTime() - start;
+        for (List l : CharDataMap.values()) {
+            metrics.contextFollowers(l.getSize());
+        }
+        metrics.trainCompleted(chars, nanos, CharDataMap.size());
+    }
+
+    // Counts the windows of the given shard of the file into a new map, in which
+    // the keys are kept in the order of their first occurrence in the shard
+    private Map<String, List> countShard(String fileName, long[] bounds, int shard) {
+        Map<String, List> map = new LinkedHashMap<String, List>();
+        boolean last = (shard == bounds.length - 2);
+        RollingWindow window = new RollingWindow(windowLength);
+
+        // only the last shard can end with the trailing whitespace of the file
+        CorpusReader in = new CorpusReader(fileName, last, bounds[shard], bounds[shard + 1]);
+        for (int i = 0; i < windowLength; i++) {
+            window.add(in.readChar());
+        }
+        while (!in.isEmpty()) {
+            char c = in.readChar();
+            count(map, window, c);
+            window.add(c);
+        }
+
+        // the last shard keeps the last window and the trailing whitespace, for trainAppend()
+        // (they are read by the thread that merges the shards, after this thread ends)
+        if (last) {
+            lastWindow = window;
+            tail = readTail(in);
+        }
+        in.close();
+
+        // count the first windowLength chars of the next shard (unless they are trailing whitespace)
+        if (!last) {
+            CorpusReader next = new CorpusReader(fileName, true, bounds[shard + 1], bounds[bounds.length - 1]);
+            for (int i = 0; i < windowLength && !next.isEmpty(); i++) {
+                char c = next.readChar();
+                count(map, window, c);
+                window.add(c);
+            }
+            next.close();
+        }
+        return map;
+    }
+
+    // Computes the probabilities of all the lists of this model,
+    // unless they are computed lazily (when they are first used)
+    private void calculateAllProbabilities() {
+        if (lazyProbabilities) return;
         for (List probs : CharDataMap.values()){
             calculateProbabilities(probs);
         }
+    }
 
-
+    // Sorts the lists that were changed since they were sorted, if this model sorts its lists
+    // (see setSelfOrganizing), so a copy of the model (a file or a snapshot) has their final order
+    private void sortChangedLists() {
+        if (!selfOrganizing) return;
+        for (List probs : CharDataMap.values()) {
+            if (probs.dirty) calculateProbabilities(probs);
+        }
     }
 
     // Computes and sets the probabilities (p and cp fields) of all the
 	// characters in the given list. */
 	public void calculateProbabilities(List probs) {				
 
+        // put the most frequent chars first
+        if (selfOrganizing) {
+            probs.sortByCount();
+        }
+
+        // the probabilities of a count list are derived from its counts when they are needed
+        if (probs instanceof CountList) {
+            probs.dirty = false;
+            return;
+        }
+
         // initial value of the sum of the prev elements
         int sum = 0;
 
@@ -99,18 +510,66 @@ public class LanguageModel {
             c.cp = b4_sum + c.p;
             b4_sum += c.p;
         }
+        probs.dirty = false;
 
 	}
 
     // Returns a random character from the given probabilities list.
 	public char getRandomChar(List probs) {
-		double r = randomGenerator.nextDouble();
+        return getRandomChar(probs, randomGenerator.nextDouble());
+    }
+
+    // Returns the character of the given probabilities list that the given random number
+    // (between 0 and 1) chooses.
+    private char getRandomChar(List probs, double r) {
+
+        // sort the list, if it was changed since it was sorted (with lazy probabilities, this is
+        // its first use since the training, and its order decides which char is drawn)
+        if (selfOrganizing && probs.dirty) {
+            calculateProbabilities(probs);
+        }
+
+        // draw from the sampler of the list, compiling it if needed
+        // (the sampler is compiled from the counts, so it does not need the probabilities)
+        if (samplerKind != Sampler.Kind.LINEAR) {
+            Sampler sampler = probs.sampler;
+            if (sampler == null || sampler.kind != samplerKind) {
+                sampler = Sampler.compile(probs, samplerKind);
+                probs.sampler = sampler;
+            }
+            char chr = sampler.sample(r);
+            if (metrics != null) {
+                metrics.charSampled(sampler.depth(r));
+            }
+            return chr;
+        }
+
+        // draw from the counts of a count list, which has no stored probabilities
+        if (probs instanceof CountList) {
+            char chr = ((CountList) probs).sample(r);
+            if (metrics != null) {
+                metrics.charSampled(probs.lastScan);
+            }
+            return chr;
+        }
+
+        // compute the probabilities of the list, if its counts were changed since they were computed
+        if (probs.dirty) {
+            calculateProbabilities(probs);
+        }
+
         for (int i = 0; i < probs.getSize(); i++) {
             CharData c = probs.get(i);
             if (c.cp > r){
+                if (metrics != null) {
+                    metrics.charSampled(i + 1);
+                }
                 return c.chr;
             }
         }
+        if (metrics != null) {
+            metrics.charSampled(probs.getSize());
+        }
 
         return '^';
 	}
@@ -124,43 +583,246 @@ public class LanguageModel {
 	 */
 	public String generate(String initialText, int textLength) {
 
-        // set the result value
-        String result = initialText;
+        // the result is built in a buffer that has room for all of it
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        try {
+            generate(initialText, textLength, result);
+        }
+        catch (IOException e) {
+            // a StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
+        }
+        return result.toString();
+	}
+
+    /** Generates a random text like generate(initialText, textLength), and appends it to the given
+     *  output (for example, a Writer) one char at a time, as the chars are generated. The initial
+     *  text is appended first, so the output gets the same text that generate() returns.
+     *  Generation stops early if it reaches a window that has no list (a window that appears
+     *  only at the end of the corpus). */
+    public void generate(String initialText, int textLength, Appendable out) throws IOException {
+        generate(initialText, textLength, out, randomGenerator);
+    }
+
+    /** Generates a random text like generate(initialText, textLength), with a new random number
+     *  generator, created with the given seed (the random number generator of this model is
+     *  not used). Returns the same text as a model that was trained like this one,
+     *  constructed with the same seed, and that generates its first text. Since the text
+     *  depends only on the model and the arguments, it is kept in the cache of this model
+     *  (if it has one), and a repeated request is answered from the cache. */
+    public String generate(String initialText, int textLength, long seed) {
+        if (cache == null || initialText.length() < windowLength) {
+            return generateWithSeed(initialText, textLength, seed);
+        }
+
+        // the generated chars depend only on the last window of the initial text
+        String window = initialText.substring(initialText.length() - windowLength);
+        String generated = cache.get(window, textLength, seed);
+        if (generated == null) {
+            generated = generateWithSeed(initialText, textLength, seed).substring(initialText.length());
+            cache.put(window, textLength, seed, generated);
+        }
+        return initialText + generated;
+    }
+
+    // Generates a random text with a new random number generator, created with the given seed
+    private String generateWithSeed(String initialText, int textLength, long seed) {
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        try {
+            generate(initialText, textLength, result, new Random(seed));
+        }
+        catch (IOException e) {
+            // a StringBuilder does not throw IOException
+            throw new IllegalStateException(e);
+        }
+        return result.toString();
+    }
+
+    // Appends the initial text and the chars that are generated with the given random number
+    // generator to the given output, and reports the generation to the metrics of this model
+    private void generate(String initialText, int textLength, Appendable out, Random random) throws IOException {
+        long start = (metrics != null) ? System.nanoTime() : 0;
+        int chars = appendGenerated(initialText, textLength, out, random);
+        if (metrics != null) {
+            metrics.generateCompleted(chars, System.nanoTime() - start);
+        }
+    }
+
+    // Appends the initial text and the generated chars to the given output,
+    // and returns the number of generated chars
+    private int appendGenerated(String initialText, int textLength, Appendable out, Random random) throws IOException {
+
+        // the initial text is part of the result
+        out.append(initialText);
 
         // not valid text
         if(initialText.length() < windowLength) {
-            return initialText;
+            return 0;
         }
 
         // get the init window
-        String window = initialText.substring(Math.max(0, initialText.length()-windowLength));
-
-        // get the list of the current window
-        if (CharDataMap.get(window) == null){
-            return initialText;
-        }
+        RollingWindow window = new RollingWindow(windowLength);
+        window.set(initialText);
 
         // generate each char of the new string
-        while (result.length() - initialText.length() < textLength){
+        for (int i = 0; i < textLength; i++) {
 
-            // get the list of the window
+            // get the list of the window (if the initial window has no list, no text is generated)
             List l = CharDataMap.get(window);
+            if (l == null) {
+                return i;
+            }
             // get the new char
-            char c = getRandomChar(l);
+            char c = getRandomChar(l, random.nextDouble());
             // add the new char
-            result += c;
+            out.append(c);
             // set new window
-            window = window.substring(1) + c;
+            window.add(c);
         }
-        // return the result
-        return result;
-	}
+        return Math.max(textLength, 0);
+    }
+
+    /** Returns a Reader of a text that this model generates from the given initial text,
+     *  one read at a time (see GeneratedTextReader). Reading the whole text gives the text that
+     *  generate(initialText, textLength) returns. If textLength is negative, the text has no
+     *  limit, and the reader generates characters for as long as it is read. */
+    public GeneratedTextReader reader(String initialText, long textLength) {
+        return new GeneratedTextReader(this, initialText, textLength);
+    }
+
+    /** Saves this model to the given file, in a binary format that load() reads.
+     *  The file holds the window length and the number of windows, and then, for each window,
+     *  its characters, the number of characters in its list, and the (chr, count) pairs of
+     *  the list, in the order of the list. Probabilities are not saved: load() computes them. */
+    public void save(String fileName) {
+        sortChangedLists();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16))) {
+            out.writeInt(MODEL_FILE_MAGIC);
+            out.writeInt(MODEL_FILE_VERSION);
+            out.writeInt(windowLength);
+            out.writeInt(CharDataMap.size());
+            for (Map.Entry<String, List> entry : CharDataMap.entrySet()) {
+                out.writeChars(entry.getKey());
+                List l = entry.getValue();
+                out.writeInt(l.getSize());
+                ListIterator it = l.listIterator(0);
+                while (it != null && it.hasNext()) {
+                    CharData c = it.next();
+                    out.writeChar(c.chr);
+                    out.writeInt(c.count);
+                }
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not write " + fileName, ioe);
+        }
+    }
+
+    /** Saves this model to the given file, in the layout of a mapped model file
+     *  (see MappedLanguageModel). The file can be opened by any number of processes at the
+     *  same time, and queried in place, without loading the model. */
+    public void saveMapped(String fileName) {
+        sortChangedLists();
+        MappedLanguageModel.write(CharDataMap, windowLength, fileName);
+    }
+
+    /** Loads a model that was saved by save() from the given file, instead of training it.
+     *  The map of this model is replaced by the map of the file, and the window length of
+     *  this model is set to the window length of the file. The model is the same as the one
+     *  that was saved (including the order of the keys and of the lists). */
+    public void load(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            // the file is read sequentially, in blocks
+            ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+            in.flip();
+            fillAtLeast(channel, in, 16);
+            if (in.getInt() != MODEL_FILE_MAGIC) {
+                throw new IllegalArgumentException(fileName + " is not a language model file");
+            }
+            int version = in.getInt();
+            if (version != MODEL_FILE_VERSION) {
+                throw new IllegalArgumentException(fileName + " has an unsupported version: " + version);
+            }
+            int length = in.getInt();
+            int size = in.getInt();
+
+            HashMap<String, List> map = new HashMap<String, List>();
+            char[] key = new char[length];
+            char[] chrs = new char[16];
+            int[] counts = new int[16];
+            for (int i = 0; i < size; i++) {
+                fillAtLeast(channel, in, 2 * length + 4);
+                for (int j = 0; j < length; j++) {
+                    key[j] = in.getChar();
+                }
+                int n = in.getInt();
+                if (n > chrs.length) {
+                    chrs = new char[Math.max(n, 2 * chrs.length)];
+                    counts = new int[chrs.length];
+                }
+                for (int j = 0; j < n; j++) {
+                    fillAtLeast(channel, in, 6);
+                    chrs[j] = in.getChar();
+                    counts[j] = in.getInt();
+                }
+
+                // the chars of a list are distinct, so they are added to its beginning,
+                // from the last one to the first one
+                List l = newList();
+                for (int j = n - 1; j >= 0; j--) {
+                    l.addFirst(chrs[j], counts[j]);
+                }
+                if (!lazyProbabilities) {
+                    calculateProbabilities(l);
+                }
+                map.put(new String(key), l);
+            }
+            windowLength = length;
+            CharDataMap = map;
+            clearCache();
+            // the text that the model was trained on is unknown, so appended text starts a new window
+            lastWindow = null;
+            tail.setLength(0);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not read " + fileName, ioe);
+        }
+    }
+
+    // Reads more of the file into the given buffer (in read mode),
+    // until it has at least the given number of bytes
+    private static void fillAtLeast(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("unexpected end of the model file");
+            }
+        }
+        buffer.flip();
+    }
+
+    /** Returns an immutable snapshot of this model, that many threads can use to generate
+     *  texts at the same time (see FrozenLanguageModel). The snapshot draws characters with
+     *  BINARY_SEARCH samplers (or ALIAS samplers, if this model uses them).
+     *  Training this model further does not change the snapshot. */
+    public FrozenLanguageModel freeze() {
+        Sampler.Kind kind = (samplerKind == Sampler.Kind.ALIAS) ? Sampler.Kind.ALIAS : Sampler.Kind.BINARY_SEARCH;
+        sortChangedLists();
+        HashMap<String, Sampler> samplers = new HashMap<String, Sampler>(CharDataMap.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List> entry : CharDataMap.entrySet()) {
+            samplers.put(entry.getKey(), Sampler.compile(entry.getValue(), kind));
+        }
+        return new FrozenLanguageModel(windowLength, samplers);
+    }
 
     /** Returns a string representing the map of this language model. */
 	public String toString() {
 		StringBuilder str = new StringBuilder();
 		for (String key : CharDataMap.keySet()) {
 			List keyProbs = CharDataMap.get(key);
+			if (keyProbs.dirty) calculateProbabilities(keyProbs);
 			str.append(key + " : " + keyProbs + "\n");
 		}
 		return str.toString();
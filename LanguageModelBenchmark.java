@@ -0,0 +1,252 @@
+import java.lang.management.ManagementFactory;
+
+/** Measures the hot paths of the language model: train, calculateProbabilities,
+ *  getRandomChar and generate, and the List operations that they use (update, indexOf, get).
+ *  It also reports the heap that a trained model keeps, for each way to index the contexts
+ *  (and for a backoff model of all the window lengths up to a maximal one),
+ *  and the average depth of the list scans, with and without self-organizing lists.
+ *  Each benchmark is warmed up, and then run for a fixed time. The benchmark reports the
+ *  throughput (operations per second), the average latency (nanoseconds per operation),
+ *  and the allocation rate (bytes allocated per operation, by the benchmark thread).
+ *  Usage: java LanguageModelBenchmark [filter]
+ *  Only the benchmarks whose names contain the filter are run (all of them by default). */
+public class LanguageModelBenchmark {
+
+    // The time to warm up each benchmark, and the time to measure it (in nanoseconds)
+    private static final long WARMUP_TIME = 300_000_000L;
+    private static final long MEASURE_TIME = 1_000_000_000L;
+
+    // The corpora of the train benchmarks
+    private static final String[] CORPORA = { "shake.txt", "shakespeareinlove.txt", "originofspecies.txt" };
+
+    // The result of each operation is added to this field, so that the JIT cannot skip the work
+    private static long sink;
+
+    // Only the benchmarks whose names contain this filter are run
+    private static String filter = "";
+
+    /** An operation to measure. */
+    interface Operation {
+        // Runs the operation once
+        void run();
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0) filter = args[0];
+        System.out.printf("%-48s %14s %14s %14s%n", "benchmark", "ops/s", "ns/op", "bytes/op");
+
+        // training, on each corpus and window length
+        for (String fileName : CORPORA) {
+            for (int windowLength = 1; windowLength <= 12; windowLength++) {
+                final int length = windowLength;
+                measure("train " + fileName + " windowLength=" + length, () -> {
+                    LanguageModel lm = new LanguageModel(length, 20);
+                    lm.train(fileName);
+                    sink += lm.CharDataMap.size();
+                });
+            }
+        }
+
+        // training in the byte (Latin-1) mode, on each corpus and window length that it supports
+        for (String fileName : CORPORA) {
+            for (int windowLength = 1; windowLength <= ByteLanguageModel.MAX_BYTE_WINDOW; windowLength++) {
+                final int length = windowLength;
+                measure("trainBytes " + fileName + " windowLength=" + length, () -> {
+                    ByteLanguageModel lm = new ByteLanguageModel(length, 20);
+                    lm.train(fileName);
+                    sink += lm.size();
+                });
+            }
+        }
+
+        // training all the window lengths up to 8, in one pass over a backoff model,
+        // and in a pass for each window length
+        final int maxWindowLength = 8;
+        measure("trainBackoff one pass maxWindowLength=" + maxWindowLength, () -> {
+            BackoffLanguageModel lm = new BackoffLanguageModel(maxWindowLength, 20);
+            lm.train("originofspecies.txt");
+            sink += lm.size();
+        });
+        measure("trainBackoff separate passes maxWindowLength=" + maxWindowLength, () -> {
+            for (int length = 1; length <= maxWindowLength; length++) {
+                LanguageModel lm = new LanguageModel(length, 20);
+                lm.train("originofspecies.txt");
+                sink += lm.CharDataMap.size();
+            }
+        });
+
+        // the List operations, on lists of various sizes
+        int[] sizes = { 1, 4, 16, 64 };
+        for (int size : sizes) {
+            final List list = newList(size);
+            final char last = list.get(size - 1).chr;
+            measure("List.update size=" + size, () -> list.update(last));
+            measure("List.indexOf size=" + size, () -> sink += list.indexOf(last));
+            measure("List.get size=" + size, () -> sink += list.get(size - 1).count);
+            final LanguageModel lm = new LanguageModel(1, 20);
+            measure("calculateProbabilities size=" + size, () -> lm.calculateProbabilities(list));
+            measure("getRandomChar size=" + size, () -> sink += lm.getRandomChar(list));
+        }
+
+        // generating texts of various lengths
+        if (matches("generate")) {
+            final LanguageModel lm = new LanguageModel(7, 20);
+            lm.train("originofspecies.txt");
+            int[] lengths = { 100, 1000, 10000 };
+            for (int length : lengths) {
+                measure("generate textLength=" + length, () -> sink += lm.generate("Natural", length).length());
+            }
+        }
+
+        // generating many short texts from a frozen model, one at a time and in one batch
+        if (matches("generateBatch")) {
+            final LanguageModel lm = new LanguageModel(7, 20);
+            lm.train("originofspecies.txt");
+            final FrozenLanguageModel frozen = lm.freeze();
+            final int prompts = 1000;
+            final String[] initialTexts = new String[prompts];
+            final int[] textLengths = new int[prompts];
+            final long[] seeds = new long[prompts];
+            for (int i = 0; i < prompts; i++) {
+                initialTexts[i] = (i % 2 == 0) ? "Natural" : "The origin";
+                textLengths[i] = 100;
+                seeds[i] = i;
+            }
+            measure("generateBatch one at a time prompts=" + prompts, () -> {
+                for (int i = 0; i < prompts; i++) {
+                    sink += frozen.generate(initialTexts[i], textLengths[i], seeds[i]).length();
+                }
+            });
+            measure("generateBatch batch prompts=" + prompts,
+                    () -> sink += frozen.generate(initialTexts, textLengths, seeds).length);
+        }
+
+        // the average number of elements that training and getRandomChar scan in a list,
+        // with the lists in the order of the first occurrences, and with self-organizing lists
+        if (matches("scanDepth")) {
+            System.out.printf("%n%-48s %14s %14s%n", "scan depth (originofspecies.txt)", "train", "getRandomChar");
+            int[] windowLengths = { 1, 3, 7 };
+            for (int length : windowLengths) {
+                for (boolean selfOrganizing : new boolean[] { false, true }) {
+                    LanguageModel lm = new LanguageModel(length, 20);
+                    lm.setSelfOrganizing(selfOrganizing);
+                    MetricsRecorder metrics = new MetricsRecorder();
+                    lm.setMetrics(metrics);
+                    lm.train("originofspecies.txt");
+                    lm.generate("Natural selection".substring(0, length), 100000);
+                    System.out.printf("%-48s %14.2f %14.2f%n",
+                            (selfOrganizing ? "self-organizing" : "first occurrence") + " windowLength=" + length,
+                            metrics.getListScanLengths().getMean(), metrics.getSampleScanDepths().getMean());
+                }
+            }
+        }
+
+        // the heap that the trained model keeps, for each way to index the contexts
+        if (matches("memory")) {
+            System.out.printf("%n%-48s %14s %14s%n", "memory (originofspecies.txt)", "contexts", "bytes");
+            int[] windowLengths = { 3, 7, 10, 20 };
+            for (int length : windowLengths) {
+                long before = usedMemory();
+                LanguageModel lm = new LanguageModel(length, 20);
+                lm.train("originofspecies.txt");
+                printMemory("HashMap<String, List> windowLength=" + length, lm.CharDataMap.size(), usedMemory() - before);
+                lm = null;
+
+                before = usedMemory();
+                CompactLanguageModel table = new CompactLanguageModel(new ContextTable(length), 20);
+                table.train("originofspecies.txt");
+                printMemory("ContextTable windowLength=" + length, table.contexts.size(), usedMemory() - before);
+                table = null;
+
+                before = usedMemory();
+                CompactLanguageModel trie = new CompactLanguageModel(new ContextTrie(length), 20);
+                trie.train("originofspecies.txt");
+                printMemory("ContextTrie windowLength=" + length, trie.contexts.size(), usedMemory() - before);
+                trie = null;
+
+                if (length <= ByteLanguageModel.MAX_BYTE_WINDOW) {
+                    before = usedMemory();
+                    ByteLanguageModel bytes = new ByteLanguageModel(length, 20);
+                    bytes.train("originofspecies.txt");
+                    printMemory("ByteLanguageModel windowLength=" + length, bytes.size(), usedMemory() - before);
+                    bytes = null;
+                }
+
+                // all the window lengths up to this one
+                if (length <= 10) {
+                    before = usedMemory();
+                    BackoffLanguageModel backoff = new BackoffLanguageModel(length, 20);
+                    backoff.train("originofspecies.txt");
+                    printMemory("BackoffLanguageModel maxWindowLength=" + length, backoff.size(), usedMemory() - before);
+                    backoff = null;
+                }
+            }
+        }
+
+        if (sink == 42) System.out.println();
+    }
+
+    // Returns the heap in use, after collecting the garbage
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Prints the heap that a model keeps
+    private static void printMemory(String name, int contexts, long bytes) {
+        System.out.printf("%-48s %14d %14d%n", name, contexts, bytes);
+    }
+
+    // Returns a list of chars with the given number of distinct chars, with various counts
+    private static List newList(int size) {
+        List list = new List();
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j <= i % 5; j++) {
+                list.update((char) ('!' + i));
+            }
+        }
+        return list;
+    }
+
+    // Checks if a benchmark with the given name should run
+    private static boolean matches(String name) {
+        return name.contains(filter);
+    }
+
+    // Warms up and measures the given operation, and prints the results
+    private static void measure(String name, Operation operation) {
+        if (!matches(name)) return;
+
+        // warm up
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_TIME) {
+            operation.run();
+        }
+
+        // measure, in batches that double in size while they are shorter than a millisecond
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long operations = 0;
+        long batch = 1;
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        start = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < MEASURE_TIME) {
+            long batchStart = System.nanoTime();
+            for (long i = 0; i < batch; i++) {
+                operation.run();
+            }
+            long batchTime = System.nanoTime() - batchStart;
+            operations += batch;
+            if (batchTime < 1_000_000L) batch *= 2;
+            elapsed = System.nanoTime() - start;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("%-48s %14.1f %14.1f %14.1f%n", name,
+                operations * 1e9 / elapsed, (double) elapsed / operations, (double) allocated / operations);
+    }
+}
@@ -1,6 +1,11 @@
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
 
 public class LanguageModelTester {
         public static void main(String[] args) {
@@ -19,11 +24,99 @@ public class LanguageModelTester {
             case "generate":
                 result = testGenerate();
                 break;
+            case "compact":
+                result = testCompact();
+                break;
+            case "trainMapped":
+                result = testTrainMapped();
+                break;
+            case "arrayLists":
+                result = testArrayLists();
+                break;
+            case "samplers":
+                result = testSamplers();
+                break;
+            case "trainParallel":
+                result = testTrainParallel();
+                break;
+            case "freeze":
+                result = testFreeze();
+                break;
+            case "saveLoad":
+                result = testSaveLoad();
+                break;
+            case "reader":
+                result = testReader();
+                break;
+            case "trainAppend":
+                result = testTrainAppend();
+                break;
+            case "lazyProbabilities":
+                result = testLazyProbabilities();
+                break;
+            case "countLists":
+                result = testCountLists();
+                break;
+            case "backoff":
+                result = testBackoff();
+                break;
+            case "trie":
+                result = testTrie();
+                break;
+            case "offHeap":
+                result = testOffHeap();
+                break;
+            case "mapped":
+                result = testMapped();
+                break;
+            case "metrics":
+                result = testMetrics();
+                break;
+            case "batch":
+                result = testBatch();
+                break;
+            case "server":
+                result = testServer();
+                break;
+            case "cache":
+                result = testCache();
+                break;
+            case "selfOrganizing":
+                result = testSelfOrganizing();
+                break;
+            case "selfOrganizingLazy":
+                result = testSelfOrganizingLazy();
+                break;
+            case "bytes":
+                result = testBytes();
+                break;
             case "all":
                 result = testCalculateProbabilities();
                 result = result && testGetRandomChar();
                 result = result && testTrain();
                 result = result && testGenerate();
+                result = result && testCompact();
+                result = result && testTrainMapped();
+                result = result && testArrayLists();
+                result = result && testSamplers();
+                result = result && testTrainParallel();
+                result = result && testFreeze();
+                result = result && testSaveLoad();
+                result = result && testReader();
+                result = result && testTrainAppend();
+                result = result && testLazyProbabilities();
+                result = result && testCountLists();
+                result = result && testBackoff();
+                result = result && testTrie();
+                result = result && testOffHeap();
+                result = result && testMapped();
+                result = result && testMetrics();
+                result = result && testBatch();
+                result = result && testServer();
+                result = result && testCache();
+                result = result && testSelfOrganizing();
+                result = result && testSelfOrganizingLazy();
+                result = result && testBytes();
                 break;
             default:
                 break;
@@ -166,6 +259,792 @@ public class LanguageModelTester {
         return res;
     }
 
+    // Test method for the CompactLanguageModel class: it should generate
+    // the same texts as a LanguageModel that was trained on the same corpus
+    public static boolean testCompact() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 7, 10};
+        for (int windowLength : windowLengths) {
+            LanguageModel languageModel = new LanguageModel(windowLength, 20);
+            CompactLanguageModel compactModel = new CompactLanguageModel(windowLength, 20);
+            languageModel.train("originofspecies.txt");
+            compactModel.train("originofspecies.txt");
+            String initialText = "Natural selection".substring(0, windowLength);
+            String expected = languageModel.generate(initialText, 1000);
+            String actual = compactModel.generate(initialText, 1000);
+            boolean res = expected.equals(actual)
+                       && languageModel.CharDataMap.size() == compactModel.contexts.size()
+                       && compactModel.generate(initialText, -100).equals(initialText);
+            if (!res) {
+                System.out.println("Compact Test failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the ContextTrie class: a CompactLanguageModel whose contexts are in a trie
+    // should generate the same texts as a LanguageModel that was trained on the same corpus
+    public static boolean testTrie() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 7, 10};
+        for (int windowLength : windowLengths) {
+            LanguageModel languageModel = new LanguageModel(windowLength, 20);
+            CompactLanguageModel trieModel = new CompactLanguageModel(new ContextTrie(windowLength), 20);
+            languageModel.train("originofspecies.txt");
+            trieModel.train("originofspecies.txt");
+            String initialText = "Natural selection".substring(0, windowLength);
+            String expected = languageModel.generate(initialText, 1000);
+            String actual = trieModel.generate(initialText, 1000);
+            boolean res = expected.equals(actual)
+                       && languageModel.CharDataMap.size() == trieModel.contexts.size();
+            if (!res) {
+                System.out.println("Trie Test failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the OffHeapContextTable class: a CompactLanguageModel whose contexts are
+    // off the heap should have the same model, and generate the same texts, as one whose
+    // contexts are in a ContextTable
+    public static boolean testOffHeap() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 7, 10};
+        for (int windowLength : windowLengths) {
+            long directBefore = directMemoryUsed();
+            OffHeapContextTable table = new OffHeapContextTable(windowLength);
+            CompactLanguageModel tableModel = new CompactLanguageModel(windowLength, 20);
+            CompactLanguageModel offHeapModel = new CompactLanguageModel(table, 20);
+            tableModel.train("originofspecies.txt");
+            offHeapModel.train("originofspecies.txt");
+            String initialText = "Natural selection".substring(0, windowLength);
+            boolean res = tableModel.toString().equals(offHeapModel.toString())
+                       && tableModel.generate(initialText, 1000).equals(offHeapModel.generate(initialText, 1000));
+
+            // the table holds no more direct memory than it reports (the old slots were freed when
+            // it grew), and closing it frees all of it (up to a few buffers of the readers and of the JDK)
+            res = res && directMemoryUsed() - directBefore < table.offHeapBytes() + (1 << 18);
+            table.close();
+            res = res && table.offHeapBytes() == 0
+                      && directMemoryUsed() - directBefore < (1 << 18);
+            if (!res) {
+                System.out.println("OffHeap Test failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+        return result;
+    }
+
+    // Test method for the MappedLanguageModel class: a model that is queried in place in a
+    // mapped model file should generate the same texts as the model that was saved
+    public static boolean testMapped() {
+        boolean res;
+        try {
+            File file = File.createTempFile("model", ".lmm");
+            file.deleteOnExit();
+            LanguageModel savedModel = new LanguageModel(7, 20);
+            savedModel.train("originofspecies.txt");
+            savedModel.saveMapped(file.getPath());
+            MappedLanguageModel mappedModel = new MappedLanguageModel(file.getPath(), 20);
+            String text = savedModel.generate("Natural", 1000);
+            res = text.equals(mappedModel.generate("Natural", 1000))
+               && mappedModel.generate("Unseen!", 1000).equals("Unseen!")
+               && mappedModel.size() == savedModel.CharDataMap.size();
+
+            // the layout does not depend on the segments that the file is mapped in, and the
+            // values that cross the end of a segment are read and written correctly
+            File segmentedFile = File.createTempFile("model", ".lmm");
+            segmentedFile.deleteOnExit();
+            MappedLanguageModel.write(savedModel.CharDataMap, 7, segmentedFile.getPath(), 1 << 16);
+            MappedLanguageModel segmentedModel = new MappedLanguageModel(segmentedFile.getPath(), 20, 1 << 12);
+            res = res && java.util.Arrays.equals(Files.readAllBytes(file.toPath()), Files.readAllBytes(segmentedFile.toPath()))
+                      && segmentedModel.generate("Natural", 1000).equals(text);
+        } catch (Exception e) {
+            res = false;
+        }
+        if (!res) {
+            System.out.println("Mapped Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the metrics of a model: the recorder should see each context, each counted
+    // char and each generated char once, and the measures should not change the generated text
+    public static boolean testMetrics() {
+        LanguageModel model = new LanguageModel(3, 20);
+        LanguageModel measuredModel = new LanguageModel(3, 20);
+        MetricsRecorder metrics = new MetricsRecorder();
+        measuredModel.setMetrics(metrics);
+        model.train("shakespeareinlove.txt");
+        measuredModel.train("shakespeareinlove.txt");
+        long counted = 0;
+        for (List l : model.CharDataMap.values()) {
+            for (int i = 0; i < l.getSize(); i++) {
+                counted += l.get(i).count;
+            }
+        }
+        String text = measuredModel.generate("The", 1000);
+        boolean res = text.equals(model.generate("The", 1000))
+                   && metrics.getContexts() == model.CharDataMap.size()
+                   && metrics.getFollowersPerContext().getCount() == model.CharDataMap.size()
+                   && metrics.getChars() == counted
+                   && metrics.getListScanLengths().getCount() == counted
+                   && metrics.getSampleScanDepths().getCount() == text.length() - 3
+                   && metrics.getGenerateNanos().getCount() == 1;
+        if (!res) {
+            System.out.println("Metrics Test failed");
+            System.out.println(metrics);
+        }
+
+        // the scans of compiled samplers and of count lists are measured too
+        LanguageModel.ListKind[] kinds = { LanguageModel.ListKind.LINKED, LanguageModel.ListKind.LINKED, LanguageModel.ListKind.COUNTS };
+        Sampler.Kind[] samplerKinds = { Sampler.Kind.BINARY_SEARCH, Sampler.Kind.ALIAS, Sampler.Kind.LINEAR };
+        for (int k = 0; k < kinds.length; k++) {
+            MetricsRecorder samplerMetrics = new MetricsRecorder();
+            LanguageModel samplerModel = new LanguageModel(3, 20);
+            samplerModel.setListKind(kinds[k]);
+            samplerModel.setSamplerKind(samplerKinds[k]);
+            samplerModel.train("shakespeareinlove.txt");
+            samplerModel.setMetrics(samplerMetrics);
+            String samplerText = samplerModel.generate("The", 1000);
+            boolean samplerRes = samplerMetrics.getSampleScanDepths().getCount() == samplerText.length() - 3
+                              && samplerMetrics.getSampleScanDepths().getMax() >= 1;
+            if (!samplerRes) {
+                System.out.println("Metrics Test failed with " + kinds[k] + " lists and " + samplerKinds[k] + " samplers");
+            }
+            res = res && samplerRes;
+        }
+
+        // the followers of the contexts are recorded as JFR events, with a bucket for each power of 2
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+            recording.enable("languagemodel.ContextFollowers");
+            recording.start();
+            LanguageModel jfrModel = new LanguageModel(3, 20);
+            jfrModel.setMetrics(new JfrMetrics());
+            jfrModel.train("shakespeareinlove.txt");
+            recording.stop();
+            File file = File.createTempFile("recording", ".jfr");
+            file.deleteOnExit();
+            recording.dump(file.toPath());
+            long contexts = 0;
+            for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals("languagemodel.ContextFollowers")) {
+                    contexts += event.getLong("contexts");
+                }
+            }
+            boolean jfrRes = contexts == jfrModel.CharDataMap.size();
+            if (!jfrRes) {
+                System.out.println("Metrics Test failed: the ContextFollowers events count " + contexts + " contexts");
+            }
+            res = res && jfrRes;
+        } catch (Exception e) {
+            res = false;
+        }
+        return res;
+    }
+
+    // Test method for batch generation: each text of a batch should be the same as the text
+    // that generate() returns for its initial text, length and seed (including initial texts
+    // that are too short or were not seen, and texts that stop early)
+    public static boolean testBatch() {
+        LanguageModel languageModel = new LanguageModel(7);
+        languageModel.train("originofspecies.txt");
+        FrozenLanguageModel frozenModel = languageModel.freeze();
+        String[] prompts = { "Natural", "Natural selection", "The origin", "Short", "Unseen!", "species", "varieties" };
+        int n = 300;
+        String[] initialTexts = new String[n];
+        int[] textLengths = new int[n];
+        long[] seeds = new long[n];
+        for (int i = 0; i < n; i++) {
+            initialTexts[i] = prompts[i % prompts.length];
+            textLengths[i] = (i * 37) % 400;
+            seeds[i] = i * 1000003L - 500;
+        }
+        String[] texts = frozenModel.generate(initialTexts, textLengths, seeds);
+        boolean res = texts.length == n;
+        for (int i = 0; i < n && res; i++) {
+            res = texts[i].equals(frozenModel.generate(initialTexts[i], textLengths[i], seeds[i]));
+        }
+        if (!res) {
+            System.out.println("Batch Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the GenerationServer class: a request with a seed should get the text
+    // that the frozen model generates with that seed, and a request without a prompt should fail
+    public static boolean testServer() {
+        LanguageModel languageModel = new LanguageModel(7);
+        languageModel.train("originofspecies.txt");
+        FrozenLanguageModel frozenModel = languageModel.freeze();
+        GenerationServer server = new GenerationServer(frozenModel, 0);
+        server.start();
+        boolean res;
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://localhost:" + server.getPort() + "/generate";
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "?prompt=Natural+sel&len=300&seed=42")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> missing = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "?len=300")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            res = response.statusCode() == 200
+               && response.body().equals(frozenModel.generate("Natural sel", 300, 42))
+               && missing.statusCode() == 400;
+        } catch (Exception e) {
+            res = false;
+        } finally {
+            server.stop();
+        }
+        if (!res) {
+            System.out.println("Server Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the generation cache: a seeded generation should be the same as the first
+    // generation of a model with that seed, a repeated one should come from the cache,
+    // the cache should evict the least recently used texts, and training should clear it
+    public static boolean testCache() {
+        LanguageModel seededModel = new LanguageModel(7, 5);
+        seededModel.train("originofspecies.txt");
+        String expected = seededModel.generate("Natural", 500);
+
+        LanguageModel model = new LanguageModel(7);
+        GenerationCache cache = new GenerationCache(2);
+        model.setCache(cache);
+        model.train("originofspecies.txt");
+        boolean res = model.generate("Natural", 500, 5).equals(expected)
+                   && model.generate("Natural", 500, 5).equals(expected)
+                   && model.generate("The Natural", 500, 5).equals("The " + expected)
+                   && cache.getMisses() == 1 && cache.getHits() == 2;
+
+        // the least recently used text is evicted
+        model.generate("Natural", 500, 6);
+        model.generate("Natural", 500, 5);
+        model.generate("Natural", 500, 7);
+        res = res && cache.size() == 2 && cache.get("Natural", 500, 5) != null && cache.get("Natural", 500, 6) == null;
+
+        // a text longer than the limit of chars is not kept
+        GenerationCache smallCache = new GenerationCache(10, 100);
+        smallCache.put("Natural", 500, 5, expected);
+        res = res && smallCache.size() == 0;
+
+        // appending to the model clears the cache
+        model.trainAppendText(" Natural selection and variation");
+        seededModel = new LanguageModel(7, 5);
+        seededModel.train("originofspecies.txt");
+        seededModel.trainAppendText(" Natural selection and variation");
+        res = res && cache.size() == 0 && model.generate("Natural", 500, 5).equals(seededModel.generate("Natural", 500));
+        if (!res) {
+            System.out.println("Cache Test failed");
+        }
+        return res;
+    }
+
+    // Test method for self-organizing lists: each list should have the same chars and counts as
+    // in a model with the default order, sorted by count, and all the kinds of lists should
+    // organize themselves in the same way
+    public static boolean testSelfOrganizing() {
+        LanguageModel model = new LanguageModel(3, 20);
+        model.train("shakespeareinlove.txt");
+        String[] organized = new String[3];
+        LanguageModel.ListKind[] kinds = { LanguageModel.ListKind.LINKED, LanguageModel.ListKind.ARRAY, LanguageModel.ListKind.COUNTS };
+        boolean res = true;
+        for (int k = 0; k < kinds.length; k++) {
+            LanguageModel organizedModel = new LanguageModel(3, 20);
+            organizedModel.setListKind(kinds[k]);
+            organizedModel.setSelfOrganizing(true);
+            organizedModel.train("shakespeareinlove.txt");
+            organized[k] = organizedModel.toString();
+            res = res && organizedModel.CharDataMap.size() == model.CharDataMap.size();
+            for (String key : model.CharDataMap.keySet()) {
+                List l = model.CharDataMap.get(key);
+                List organizedList = organizedModel.CharDataMap.get(key);
+                res = res && organizedList.getSize() == l.getSize();
+                for (int i = 0; i < organizedList.getSize() && res; i++) {
+                    CharData c = organizedList.get(i);
+                    res = l.get(l.indexOf(c.chr)).count == c.count
+                       && (i == 0 || organizedList.get(i - 1).count >= c.count);
+                }
+            }
+        }
+        res = res && organized[0].equals(organized[1]) && organized[0].equals(organized[2]);
+        if (!res) {
+            System.out.println("SelfOrganizing Test failed");
+        }
+        return res;
+    }
+
+    // Test method for self-organizing lists with lazy probabilities: with every kind of lists and
+    // of samplers, the generated texts, the snapshots and the saved files should be the same as
+    // when the lists are sorted during training
+    public static boolean testSelfOrganizingLazy() {
+        boolean result = true;
+        LanguageModel.ListKind[] kinds = { LanguageModel.ListKind.LINKED, LanguageModel.ListKind.ARRAY, LanguageModel.ListKind.COUNTS };
+        Sampler.Kind[] samplerKinds = { Sampler.Kind.LINEAR, Sampler.Kind.BINARY_SEARCH };
+        for (LanguageModel.ListKind kind : kinds) {
+            for (Sampler.Kind samplerKind : samplerKinds) {
+                LanguageModel[] models = new LanguageModel[4];
+                for (int i = 0; i < models.length; i++) {
+                    models[i] = new LanguageModel(3, 20);
+                    models[i].setListKind(kind);
+                    models[i].setSamplerKind(samplerKind);
+                    models[i].setSelfOrganizing(true);
+                    models[i].setLazyProbabilities(i % 2 == 1);
+                    models[i].train("shakespeareinlove.txt");
+                }
+                boolean res = models[0].generate("The", 1000).equals(models[1].generate("The", 1000))
+                           && models[0].freeze().generate("The", 1000, 20).equals(models[1].freeze().generate("The", 1000, 20));
+
+                // the lists that were sorted by the generation are transposed again by the appended text
+                models[0].trainAppendText(" The play is the thing");
+                models[1].trainAppendText(" The play is the thing");
+                res = res && models[0].generate("The", 1000).equals(models[1].generate("The", 1000));
+                try {
+                    File eagerFile = File.createTempFile("model", ".lm");
+                    File lazyFile = File.createTempFile("model", ".lm");
+                    eagerFile.deleteOnExit();
+                    lazyFile.deleteOnExit();
+                    models[2].save(eagerFile.getPath());
+                    models[3].save(lazyFile.getPath());
+                    res = res && java.util.Arrays.equals(Files.readAllBytes(eagerFile.toPath()), Files.readAllBytes(lazyFile.toPath()));
+                    models[2].saveMapped(eagerFile.getPath());
+                    models[3].saveMapped(lazyFile.getPath());
+                    res = res && java.util.Arrays.equals(Files.readAllBytes(eagerFile.toPath()), Files.readAllBytes(lazyFile.toPath()));
+                } catch (Exception e) {
+                    res = false;
+                }
+                if (!res) {
+                    System.out.println("SelfOrganizingLazy Test failed with " + kind + " lists and " + samplerKind + " samplers");
+                }
+                result = result && res;
+            }
+        }
+        return result;
+    }
+
+    // Test method for the ByteLanguageModel class: it should generate the same texts as a
+    // LanguageModel, with its byte tables for Latin-1 corpora and windows of up to 8 chars,
+    // and by falling back to a LanguageModel otherwise
+    public static boolean testBytes() {
+        boolean result = true;
+        int [] windowLengths = {1, 3, 7, 8, 10};
+        for (int windowLength : windowLengths) {
+            LanguageModel languageModel = new LanguageModel(windowLength, 20);
+            ByteLanguageModel byteModel = new ByteLanguageModel(windowLength, 20);
+            languageModel.train("originofspecies.txt");
+            byteModel.train("originofspecies.txt");
+            String initialText = "Natural selection".substring(0, windowLength);
+            boolean res = byteModel.isByteMode() == (windowLength <= 8)
+                       && languageModel.generate(initialText, 1000).equals(byteModel.generate(initialText, 1000))
+                       && languageModel.CharDataMap.size() == byteModel.size();
+            if (!res) {
+                System.out.println("Bytes Test failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+
+        // a corpus with a char that is not Latin-1
+        try {
+            File file = File.createTempFile("corpus", ".txt");
+            file.deleteOnExit();
+            Files.writeString(file.toPath(), "caf\u00e9 au lait, caf\u00e9 \u03bb, caf\u00e9 au lait \n ");
+            LanguageModel languageModel = new LanguageModel(3, 20);
+            ByteLanguageModel byteModel = new ByteLanguageModel(3, 20);
+            languageModel.train(file.getPath());
+            byteModel.train(file.getPath());
+            boolean res = !byteModel.isByteMode()
+                       && languageModel.generate("caf", 100).equals(byteModel.generate("caf", 100));
+            if (!res) {
+                System.out.println("Bytes Test failed with a corpus that is not Latin-1");
+            }
+            result = result && res;
+        } catch (Exception e) {
+            result = false;
+        }
+
+        // a corpus with long runs of whitespace, in the middle and at the end: they should be
+        // counted like in a LanguageModel, without keeping them in memory while they are read
+        try {
+            File file = File.createTempFile("corpus", ".txt");
+            file.deleteOnExit();
+            int run = 16 << 20;
+            Files.writeString(file.toPath(), "caf\u00e9 au lait,\n" + " ".repeat(run) + "\tcaf\u00e9 cr\u00e8me \n"
+                                           + " \n".repeat(run / 4));
+            LanguageModel languageModel = new LanguageModel(3, 20);
+            ByteLanguageModel byteModel = new ByteLanguageModel(3, 20);
+            languageModel.train(file.getPath());
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            byteModel.train(file.getPath());
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            boolean res = byteModel.isByteMode() && allocated < run / 4
+                       && languageModel.CharDataMap.size() == byteModel.size()
+                       && languageModel.generate("caf", 1000).equals(byteModel.generate("caf", 1000))
+                       && languageModel.generate("   ", 1000).equals(byteModel.generate("   ", 1000));
+            if (!res) {
+                System.out.println("Bytes Test failed with long runs of whitespace (" + allocated + " bytes allocated)");
+            }
+            result = result && res;
+        } catch (Exception e) {
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the trainMapped() method: mapping the corpus in tiny segments, which cut
+    // characters of 2, 3 and 4 bytes and runs of whitespace, should build the same model as train()
+    public static boolean testTrainMapped() {
+        boolean result = true;
+        try {
+            File file = File.createTempFile("corpus", ".txt");
+            file.deleteOnExit();
+            String text = "caf\u00e9 \u20ac5, \ud834\udd1e caf\u00e9 au lait,\u3000 \u2003\n"
+                        + " ".repeat(3000) + "\u00e9t\u00e9 \u20ac caf\u00e9 \u2028 \n \u3000";
+            Files.writeString(file.toPath(), text);
+            LanguageModel model = new LanguageModel(3, 20);
+            model.train(file.getPath());
+            int[] segmentSizes = {4, 5, 6, 7, 1 << 10};
+            for (int segmentSize : segmentSizes) {
+                LanguageModel mappedModel = new LanguageModel(3, 20);
+                mappedModel.trainMapped(file.getPath(), segmentSize);
+                boolean res = model.toString().equals(mappedModel.toString())
+                           && model.generate("caf", 100, 20).equals(mappedModel.generate("caf", 100, 20));
+                if (!res) {
+                    System.out.println("TrainMapped Test failed with segments of " + segmentSize + " bytes");
+                }
+                result = result && res;
+            }
+            LanguageModel mappedModel = new LanguageModel(7, 20);
+            LanguageModel readModel = new LanguageModel(7, 20);
+            mappedModel.trainMapped("originofspecies.txt", 1 << 12);
+            readModel.train("originofspecies.txt");
+            boolean res = readModel.toString().equals(mappedModel.toString());
+            if (!res) {
+                System.out.println("TrainMapped Test failed with originofspecies.txt");
+            }
+            result = result && res;
+        } catch (Exception e) {
+            result = false;
+        }
+        return result;
+    }
+
+    // Test method for the ARRAY list kind: the model and the generated texts
+    // should be the same as with the default (linked) lists
+    public static boolean testArrayLists() {
+        LanguageModel linkedModel = new LanguageModel(3, 20);
+        LanguageModel arrayModel = new LanguageModel(3, 20);
+        arrayModel.setListKind(LanguageModel.ListKind.ARRAY);
+        linkedModel.train("shakespeareinlove.txt");
+        arrayModel.train("shakespeareinlove.txt");
+        boolean res = linkedModel.toString().equals(arrayModel.toString())
+                   && linkedModel.generate("The", 1000).equals(arrayModel.generate("The", 1000));
+        if (!res) {
+            System.out.println("ArrayLists Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the samplers: BINARY_SEARCH should generate the same texts as LINEAR,
+    // and ALIAS should draw each character about as often as its probability
+    public static boolean testSamplers() {
+        LanguageModel linearModel = new LanguageModel(7, 20);
+        LanguageModel binaryModel = new LanguageModel(7, 20);
+        binaryModel.setSamplerKind(Sampler.Kind.BINARY_SEARCH);
+        linearModel.train("originofspecies.txt");
+        binaryModel.train("originofspecies.txt");
+        boolean res = linearModel.generate("Natural", 2000).equals(binaryModel.generate("Natural", 2000));
+        if (!res) {
+            System.out.println("Samplers Test failed: BINARY_SEARCH differs from LINEAR");
+        }
+
+        String word = "william_shakespeare";
+        List list = new List();
+        for (int i = 0; i < word.length(); i++) {
+            list.update(word.charAt(i));
+        }
+        Sampler alias = Sampler.compile(list, Sampler.Kind.ALIAS);
+        java.util.Random random = new java.util.Random(20);
+        int draws = 100000;
+        int[] drawn = new int[128];
+        for (int i = 0; i < draws; i++) {
+            drawn[alias.sample(random.nextDouble())]++;
+        }
+        for (int i = 0; i < list.getSize(); i++) {
+            CharData c = list.get(i);
+            double expected = (double) c.count / word.length();
+            double actual = (double) drawn[c.chr] / draws;
+            if (Math.abs(expected - actual) > 0.01) {
+                System.out.println("Samplers Test failed: ALIAS draws " + c.chr + " with probability " + actual
+                                 + " instead of " + expected);
+                res = false;
+            }
+        }
+        return res;
+    }
+
+    // Test method for the trainParallel() method: the counts (and the whole model)
+    // should be the same as the ones that train() builds
+    public static boolean testTrainParallel() {
+        boolean result = true;
+        int [] windowLengths = {1, 7};
+        for (int windowLength : windowLengths) {
+            LanguageModel sequentialModel = new LanguageModel(windowLength, 20);
+            LanguageModel parallelModel = new LanguageModel(windowLength, 20);
+            sequentialModel.train("originofspecies.txt");
+            parallelModel.trainParallel("originofspecies.txt", 4);
+            boolean res = sequentialModel.toString().equals(parallelModel.toString());
+            if (!res) {
+                System.out.println("TrainParallel Test failed with windowLength = " + windowLength);
+            }
+            result = result && res;
+        }
+
+        // the number of threads must be positive
+        try {
+            new LanguageModel(3, 20).trainParallel("originofspecies.txt", 0);
+            System.out.println("TrainParallel Test failed: 0 threads were accepted");
+            result = false;
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // self-organizing lists are transposed in another order in the shards
+        LanguageModel sequentialModel = new LanguageModel(3, 20);
+        LanguageModel parallelModel = new LanguageModel(3, 20);
+        sequentialModel.setSelfOrganizing(true);
+        parallelModel.setSelfOrganizing(true);
+        sequentialModel.train("originofspecies.txt");
+        parallelModel.trainParallel("originofspecies.txt", 4);
+        boolean res = sequentialModel.toString().equals(parallelModel.toString())
+                   && sequentialModel.generate("Nat", 1000).equals(parallelModel.generate("Nat", 1000));
+        if (!res) {
+            System.out.println("TrainParallel Test failed with self-organizing lists");
+        }
+        result = result && res;
+        return result;
+    }
+
+    // Test method for the freeze() method: a frozen model should generate the same texts
+    // as seeded LanguageModel objects, also when many threads generate at the same time
+    public static boolean testFreeze() {
+        LanguageModel languageModel = new LanguageModel(7);
+        languageModel.train("originofspecies.txt");
+        final FrozenLanguageModel frozenModel = languageModel.freeze();
+        final String[] expected = new String[8];
+        for (int seed = 0; seed < expected.length; seed++) {
+            LanguageModel seededModel = new LanguageModel(7, seed);
+            seededModel.train("originofspecies.txt");
+            expected[seed] = seededModel.generate("Natural", 500);
+        }
+
+        final boolean[] results = new boolean[expected.length];
+        Thread[] threads = new Thread[expected.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int seed = i;
+            threads[i] = new Thread(() -> {
+                boolean res = true;
+                for (int j = 0; j < 100; j++) {
+                    res = res && frozenModel.generate("Natural", 500, seed).equals(expected[seed]);
+                }
+                results[seed] = res;
+            });
+            threads[i].start();
+        }
+        boolean result = true;
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                result = false;
+            }
+            result = result && results[i];
+        }
+
+        // a negative text length generates no text
+        result = result && frozenModel.generate("Natural", -100, 0).equals("Natural");
+        if (!result) {
+            System.out.println("Freeze Test failed");
+        }
+        return result;
+    }
+
+    // Test method for the save() and load() methods: a loaded model should be the same
+    // as the saved one, and generate the same texts
+    public static boolean testSaveLoad() {
+        boolean res;
+        try {
+            File file = File.createTempFile("model", ".lm");
+            file.deleteOnExit();
+            LanguageModel savedModel = new LanguageModel(7, 20);
+            savedModel.train("originofspecies.txt");
+            savedModel.save(file.getPath());
+            LanguageModel loadedModel = new LanguageModel(3, 20);
+            loadedModel.load(file.getPath());
+            res = loadedModel.windowLength == 7
+               && savedModel.toString().equals(loadedModel.toString())
+               && savedModel.generate("Natural", 1000).equals(loadedModel.generate("Natural", 1000));
+        } catch (Exception e) {
+            res = false;
+        }
+        if (!res) {
+            System.out.println("SaveLoad Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the reader() method: reading the text (in small reads)
+    // should give the same text as generate()
+    public static boolean testReader() {
+        LanguageModel generatingModel = new LanguageModel(7, 20);
+        LanguageModel readingModel = new LanguageModel(7, 20);
+        generatingModel.train("originofspecies.txt");
+        readingModel.train("originofspecies.txt");
+        String expected = generatingModel.generate("Natural", 1000);
+        StringBuilder actual = new StringBuilder();
+        boolean res;
+        try {
+            java.io.Reader reader = readingModel.reader("Natural", 1000);
+            char[] buffer = new char[5];
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                actual.append(buffer, 0, n);
+            }
+            reader.close();
+            res = expected.equals(actual.toString());
+        } catch (Exception e) {
+            res = false;
+        }
+        if (!res) {
+            System.out.println("Reader Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the trainAppend() methods: training on the chunks of a text
+    // should build the same model as training on the whole text
+    public static boolean testTrainAppend() {
+        boolean result = true;
+        String text = new In("shakespeareinlove.txt").readAll();
+        int [][] cuts = {{0, 2, 5000, 100000, text.length()},
+                         {text.indexOf("\n\n") + 1, text.indexOf("\n\n") + 2, text.length() - 1, text.length()}};
+        for (int [] cut : cuts) {
+            LanguageModel wholeModel = new LanguageModel(4, 20);
+            LanguageModel appendedModel = new LanguageModel(4, 20);
+            wholeModel.trainAppendText(text);
+            appendedModel.trainAppendText(text.substring(0, cut[0]));
+            for (int i = 1; i < cut.length; i++) {
+                String chunk = text.substring(cut[i - 1], cut[i]);
+                if (i % 2 == 0) appendedModel.trainAppend(new java.io.StringReader(chunk));
+                else appendedModel.trainAppendText(chunk);
+            }
+            boolean res = wholeModel.toString().equals(appendedModel.toString());
+            if (!res) {
+                System.out.println("TrainAppend Test failed");
+            }
+            result = result && res;
+        }
+        LanguageModel fileModel = new LanguageModel(4, 20);
+        LanguageModel textModel = new LanguageModel(4, 20);
+        fileModel.train("shakespeareinlove.txt");
+        textModel.trainAppendText(text);
+        boolean res = fileModel.toString().equals(textModel.toString());
+        if (!res) {
+            System.out.println("TrainAppend Test failed: train() and trainAppendText() differ");
+        }
+        return result && res;
+    }
+
+    // Test method for count lists: the model (with its probabilities) and the generated texts
+    // should be the same as with linked lists, also after saving and loading the model
+    public static boolean testCountLists() {
+        boolean res;
+        try {
+            LanguageModel linkedModel = new LanguageModel(3, 20);
+            LanguageModel countModel = new LanguageModel(3, 20);
+            countModel.setListKind(LanguageModel.ListKind.COUNTS);
+            linkedModel.train("shakespeareinlove.txt");
+            countModel.train("shakespeareinlove.txt");
+            res = linkedModel.toString().equals(countModel.toString())
+               && linkedModel.generate("The", 1000).equals(countModel.generate("The", 1000));
+            File file = File.createTempFile("model", ".lm");
+            file.deleteOnExit();
+            countModel.save(file.getPath());
+            LanguageModel loadedModel = new LanguageModel(3, 20);
+            loadedModel.setListKind(LanguageModel.ListKind.COUNTS);
+            loadedModel.load(file.getPath());
+            res = res && linkedModel.toString().equals(loadedModel.toString());
+        } catch (Exception e) {
+            res = false;
+        }
+        if (!res) {
+            System.out.println("CountLists Test failed");
+        }
+        return res;
+    }
+
+    // Test method for the backoff model: the contexts of each order should have the same lists
+    // as a LanguageModel with that window length, and the backoff model should generate the
+    // same text as a LanguageModel with the maximal window length, until that one stops
+    public static boolean testBackoff() {
+        BackoffLanguageModel backoffModel = new BackoffLanguageModel(5, 20);
+        backoffModel.train("shakespeareinlove.txt");
+        boolean res = true;
+        int contexts = 0;
+        for (int k = 1; k <= 5; k++) {
+            LanguageModel model = new LanguageModel(k, 20);
+            model.train("shakespeareinlove.txt");
+            contexts += model.CharDataMap.size();
+            for (String key : model.CharDataMap.keySet()) {
+                List l = backoffModel.getList(key);
+                res = res && l != null && l.toString().equals(model.CharDataMap.get(key).toString());
+            }
+            if (k == 5) {
+                String text = model.generate("Viola", 1000);
+                res = res && text.length() > 5 && backoffModel.generate("Viola", 1000).startsWith(text);
+            }
+        }
+        res = res && backoffModel.size() == contexts;
+        if (!res) {
+            System.out.println("Backoff Test failed");
+        }
+        return res;
+    }
+
+    // Test method for lazy probabilities: the generated texts and the model
+    // should be the same as when the probabilities are computed during training
+    public static boolean testLazyProbabilities() {
+        LanguageModel eagerModel = new LanguageModel(7, 20);
+        LanguageModel lazyModel = new LanguageModel(7, 20);
+        lazyModel.setLazyProbabilities(true);
+        eagerModel.train("originofspecies.txt");
+        lazyModel.train("originofspecies.txt");
+        boolean res = eagerModel.generate("Natural", 2000).equals(lazyModel.generate("Natural", 2000));
+        eagerModel.trainAppendText(" Natural selection and variation");
+        lazyModel.trainAppendText(" Natural selection and variation");
+        res = res && eagerModel.generate("Natural", 2000).equals(lazyModel.generate("Natural", 2000))
+                  && eagerModel.toString().equals(lazyModel.toString());
+        if (!res) {
+            System.out.println("LazyProbabilities Test failed");
+        }
+        return res;
+    }
+
+    // Returns the number of bytes of the direct buffers of the JVM that were not freed
+    private static long directMemoryUsed() {
+        for (java.lang.management.BufferPoolMXBean pool
+                : java.lang.management.ManagementFactory.getPlatformMXBeans(java.lang.management.BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+
     private static boolean stringEqualsNoSpaces(String s1, String s2) {
         s1 = s1.replaceAll("\\s+", "");
         s2 = s2.replaceAll("\\s+", "");
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /** A linked list of character data objects.
  *  (Actually, a list of Node objects, each holding a reference to a character data object.
  *  However, users of this class are not aware of the Node objects. As far as they are concerned,
@@ -10,6 +12,16 @@ public class List {
 
     // The number of elements in this list
     private int size;
+
+    // The sampler compiled from this list by a language model, or null if it was not
+    // compiled yet (or if the list was changed since it was compiled)
+    Sampler sampler;
+
+    // True if the counts of this list were changed since its probabilities were computed
+    boolean dirty;
+
+    // The number of elements that the last search for a char in this list compared (for metrics)
+    int lastScan;
 	
     /** Constructs an empty list. */
     public List() {
@@ -40,6 +52,14 @@ public class List {
 
         // increase the size
         size ++;
+        sampler = null;
+        dirty = true;
+    }
+
+    /** Adds a CharData object with the given character and count to the beginning of this list. */
+    public void addFirst(char chr, int count) {
+        addFirst(chr);
+        getFirst().count = count;
     }
     
     /** GIVE Textual representation of this list. */
@@ -68,6 +88,7 @@ public class List {
 
         // if empty list
         if (first == null){
+            lastScan = 0;
             return -1;
         }
 
@@ -78,6 +99,7 @@ public class List {
             // check equals to the param
             if (n.cp.chr == chr){
                 // return the current index
+                lastScan = i + 1;
                 return i;
             }
 
@@ -86,6 +108,7 @@ public class List {
         }
 
         // if not found
+        lastScan = size;
         return -1;
     }
 
@@ -111,6 +134,8 @@ public class List {
                 // update counter
                 found = true;
                 n.cp.count ++;
+                sampler = null;
+                dirty = true;
             }
             // get the next item
             n = n.next;
@@ -119,6 +144,66 @@ public class List {
 
     }
 
+    /** If the given character exists in one of the CharData objects in this list,
+     *  adds the given count to its counter. Otherwise, adds a new CharData object with the
+     *  given chr and count to the beginning of this list. */
+    public void update(char chr, int count) {
+
+        // find the node with the char, and update its counter
+        lastScan = 0;
+        for (Node n = first; n != null; n = n.next) {
+            lastScan++;
+            if (n.cp.chr == chr) {
+                n.cp.count += count;
+                sampler = null;
+                dirty = true;
+                return;
+            }
+        }
+
+        // not in list
+        addFirst(chr);
+        first.cp.count = count;
+    }
+
+    /** Like update(chr), but if the given character exists in this list, it also swaps it with
+     *  the element before it (the transpose heuristic), so the chars that are updated often
+     *  move towards the beginning of the list, and are found after a short scan. */
+    public void updateTranspose(char chr) {
+        Node previous = null;
+        lastScan = 0;
+        for (Node n = first; n != null; n = n.next) {
+            lastScan++;
+            if (n.cp.chr == chr) {
+                n.cp.count++;
+                if (previous != null) {
+                    CharData c = previous.cp;
+                    previous.cp = n.cp;
+                    n.cp = c;
+                }
+                sampler = null;
+                dirty = true;
+                return;
+            }
+            previous = n;
+        }
+        addFirst(chr);
+    }
+
+    /** Sorts the elements of this list by their counts, from the largest to the smallest.
+     *  Elements with the same count are sorted by their chars, so the sorted order depends
+     *  only on the counts, and not on the order of the list before the sort. */
+    public void sortByCount() {
+        CharData[] arr = toArray();
+        Arrays.sort(arr, (a, b) -> (a.count != b.count) ? b.count - a.count : a.chr - b.chr);
+        int i = 0;
+        for (Node n = first; n != null; n = n.next) {
+            n.cp = arr[i++];
+        }
+        sampler = null;
+        dirty = true;
+    }
+
     /** GIVE If the given character exists in one of the CharData objects
      *  in this list, removes this CharData object from the list and returns
      *  true. Otherwise, returns false. */
@@ -133,6 +218,8 @@ public class List {
         // get the first element
         Node current = first;
         // remove in case of first element
+        sampler = null;
+        dirty = true;
         if (current.cp.chr == chr){
             first = first.next;
             size --;
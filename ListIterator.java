@@ -4,14 +4,27 @@ public class ListIterator {
     // Current position in the list (cursor)
     Node current;
 
+    // The elements of an array based list, and the index of the current element in them
+    // (used instead of the current node, when the iterator is over an array)
+    CharData[] elements;
+    int index;
+
     /** Constructs a list iterator, starting at the given node. */
     public ListIterator(Node node) {
         // Sets the cursor of this iterator to the given node
         current = node;
     }
 
+    /** Constructs a list iterator over the given array of elements,
+     *  starting at the given index. */
+    public ListIterator(CharData[] elements, int index) {
+        this.elements = elements;
+        this.index = index;
+    }
+
     /** Checks if this iterator has more nodes to process */
     public boolean hasNext() {
+        if (elements != null) return index < elements.length;
         return (current != null);
     }
   
@@ -19,6 +32,7 @@ public class ListIterator {
      *  and advances the cursor to the next element.
      *  Should be called only if hasNext() is true. */
     public CharData next() {
+        if (elements != null) return elements[index++];
         CharData cd = current.cp;
         current = current.next;
         return cd;
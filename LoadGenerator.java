@@ -0,0 +1,104 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A closed-loop load generator for a GenerationServer. For each concurrency level, it starts
+ *  that many clients (virtual threads), and each client sends a request and waits for its
+ *  response before it sends the next one, for a fixed time. It then reports the number of
+ *  requests per second, and the p50, p99 and maximal latencies of the requests.
+ *  Usage: java LoadGenerator [baseUrl] [textLength] [secondsPerLevel] [levels...]
+ *  (by default: http://localhost:8080 100 5 1 4 16 64) */
+public class LoadGenerator {
+
+    // The prompts of the requests, used in turn
+    private static final String[] PROMPTS = { "Natural", "The origin", "species of", "selection" };
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int textLength = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int[] levels = { 1, 4, 16, 64 };
+        if (args.length > 3) {
+            levels = new int[args.length - 3];
+            for (int i = 3; i < args.length; i++) {
+                levels[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+        System.out.printf("%12s %12s %12s %12s %12s %10s%n", "concurrency", "requests/s", "p50 (us)", "p99 (us)", "max (us)", "errors");
+        for (int concurrency : levels) {
+            run(client, baseUrl, textLength, concurrency, seconds);
+        }
+    }
+
+    // Runs the given number of clients for the given time, and prints the results
+    private static void run(HttpClient client, String baseUrl, int textLength, int concurrency, int seconds)
+            throws InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        AtomicLong errors = new AtomicLong();
+        Thread[] clients = new Thread[concurrency];
+        long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            final int id = i;
+            clients[i] = Thread.ofVirtual().start(() -> {
+                long[] times = new long[1024];
+                int n = 0;
+                for (long seed = id; System.nanoTime() < end; seed += concurrency) {
+                    String prompt = PROMPTS[(int) (seed % PROMPTS.length)];
+                    URI uri = URI.create(baseUrl + "/generate?prompt=" + URLEncoder.encode(prompt, StandardCharsets.UTF_8)
+                                         + "&len=" + textLength + "&seed=" + seed);
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).build(),
+                                                                     HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                    }
+                    catch (Exception e) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    if (n == times.length) times = Arrays.copyOf(times, 2 * n);
+                    times[n++] = System.nanoTime() - sent;
+                }
+                latencies[id] = times;
+                counts[id] = n;
+            });
+        }
+        for (Thread c : clients) {
+            c.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // merge the latencies of all the clients
+        int total = 0;
+        for (int count : counts) total += count;
+        long[] all = new long[total];
+        int k = 0;
+        for (int i = 0; i < concurrency; i++) {
+            System.arraycopy(latencies[i], 0, all, k, counts[i]);
+            k += counts[i];
+        }
+        Arrays.sort(all);
+        System.out.printf("%12d %12.1f %12d %12d %12d %10d%n", concurrency, total * 1e9 / elapsed,
+                percentile(all, 50) / 1000, percentile(all, 99) / 1000,
+                total == 0 ? 0 : all[total - 1] / 1000, errors.get());
+    }
+
+    // Returns the given percentile of the given sorted values (0 if there are none)
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(sorted.length * percentile / 100) - 1;
+        return sorted[Math.max(rank, 0)];
+    }
+}
@@ -0,0 +1,374 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+
+/** A read-only language model that is queried in place in a model file, which is memory-mapped.
+ *  Opening the model maps the file and reads its header, so it takes the same (short) time
+ *  for any size of model, and the processes that open the same file share one copy of it
+ *  in the page cache. The contexts are found and the followers are sampled directly
+ *  in the mapped bytes, with no objects on the heap.
+ *  The file is written by LanguageModel.saveMapped(), and has this layout (big-endian):
+ *  a header (magic, version, window length, number of contexts, number of slots, number of
+ *  followers), an open addressing table of slots that hold (context index + 1) or 0, the
+ *  records of the contexts (the key chars, the index of the first follower, the number of
+ *  followers and the sum of their counts), and the records of the followers (a char and a count),
+ *  where the followers of each context are stored together, in the order of its List.
+ *  All the positions in the file are longs, and the file is mapped in segments of 1 GB
+ *  (a MappedByteBuffer is limited to 2 GB), so the size of a model is not limited.
+ *  Generating with the same seed gives the same texts as the LanguageModel that was saved. */
+public class MappedLanguageModel implements TextGenerator, FollowerStore {
+
+    // The first int of a mapped model file, and the version of the layout
+    static final int MAPPED_FILE_MAGIC = 0x4C4D4D50;
+    static final int MAPPED_FILE_VERSION = 2;
+
+    // The size of the segments that a file is mapped in (a power of 2)
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    // The size of the header of a mapped model file, in bytes
+    private static final int HEADER_SIZE = 32;
+
+    // The size of a follower record, in bytes
+    private static final int FOLLOWER_SIZE = 6;
+
+    // The mapped file
+    private final Segments file;
+
+    // The window length of the model
+    private final int windowLength;
+
+    // The number of contexts of the model
+    private final int size;
+
+    // The number of slots of the open addressing table (a power of 2)
+    private final long slotCount;
+
+    // The size of a context record, and the positions of the contexts and of the followers in the file
+    private final int contextSize;
+    private final long contextsStart;
+    private final long followersStart;
+
+    // The random number generator used by this model.
+    private final Random randomGenerator;
+
+    /** Opens the model in the given file (written by LanguageModel.saveMapped) with a given
+     *  seed value. Generating texts from this model multiple times with the
+     *  same seed value will produce the same random texts. */
+    public MappedLanguageModel(String fileName, int seed) {
+        this(fileName, new Random(seed), SEGMENT_SIZE);
+    }
+
+    /** Opens the model in the given file (written by LanguageModel.saveMapped).
+     *  Generating texts from this model multiple times will produce different random texts. */
+    public MappedLanguageModel(String fileName) {
+        this(fileName, new Random(), SEGMENT_SIZE);
+    }
+
+    // Opens the model in the given file with a given seed value,
+    // and maps the file in segments of the given size (a power of 2)
+    MappedLanguageModel(String fileName, int seed, int segmentSize) {
+        this(fileName, new Random(seed), segmentSize);
+    }
+
+    // Opens the model in the given file, with the given random number generator
+    private MappedLanguageModel(String fileName, Random randomGenerator, int segmentSize) {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName))) {
+            file = new Segments(channel, FileChannel.MapMode.READ_ONLY, channel.size(), segmentSize);
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not open " + fileName, ioe);
+        }
+        if (file.size() < HEADER_SIZE || file.getInt(0) != MAPPED_FILE_MAGIC) {
+            throw new IllegalArgumentException(fileName + " is not a mapped language model file");
+        }
+        int version = file.getInt(4);
+        if (version != MAPPED_FILE_VERSION) {
+            throw new IllegalArgumentException(fileName + " has an unsupported version: " + version);
+        }
+        windowLength = file.getInt(8);
+        size = file.getInt(12);
+        slotCount = file.getLong(16);
+        contextSize = 2 * windowLength + 16;
+        contextsStart = HEADER_SIZE + 4 * slotCount;
+        followersStart = contextsStart + (long) size * contextSize;
+        this.randomGenerator = randomGenerator;
+    }
+
+    /** Returns the window length of this model. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Returns the number of contexts of this model. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Generates a random text, based on the probabilities that were learned during training.
+     * @param initialText - text to start with. If initialText's last substring of size windowLength
+     * doesn't appear as a context in the model, we generate no text and return only the initial text.
+     * @param textLength - the size of text to generate
+     * @return the generated text
+     */
+    public String generate(String initialText, int textLength) {
+        StringBuilder result = new StringBuilder(initialText.length() + Math.max(textLength, 0));
+        result.append(initialText);
+        if (initialText.length() < windowLength) {
+            return result.toString();
+        }
+        RollingWindow window = new RollingWindow(windowLength);
+        window.set(initialText);
+        for (int i = 0; i < textLength; i++) {
+            int context = find(window);
+            // the window was seen only at the end of the corpus, and has no followers
+            if (context == -1) break;
+            char c = sample(context, randomGenerator.nextDouble());
+            result.append(c);
+            window.add(c);
+        }
+        return result.toString();
+    }
+
+    /** Writes the given contexts and their lists, of the given window length, to the given file,
+     *  in the layout of a mapped model file. */
+    static void write(Map<String, List> map, int windowLength, String fileName) {
+        write(map, windowLength, fileName, SEGMENT_SIZE);
+    }
+
+    // Writes the given contexts to the given file, mapped in segments of the given size
+    static void write(Map<String, List> map, int windowLength, String fileName, int segmentSize) {
+        int size = map.size();
+        long followerCount = 0;
+        for (List l : map.values()) {
+            followerCount += l.getSize();
+        }
+
+        // keep the table at most half full
+        long slotCount = 1;
+        while (slotCount < 2L * size) {
+            slotCount *= 2;
+        }
+        int contextSize = 2 * windowLength + 16;
+        long contextsStart = HEADER_SIZE + 4 * slotCount;
+        long followersStart = contextsStart + (long) size * contextSize;
+        long fileSize = followersStart + followerCount * FOLLOWER_SIZE;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Segments out = new Segments(channel, FileChannel.MapMode.READ_WRITE, fileSize, segmentSize);
+            out.putInt(0, MAPPED_FILE_MAGIC);
+            out.putInt(4, MAPPED_FILE_VERSION);
+            out.putInt(8, windowLength);
+            out.putInt(12, size);
+            out.putLong(16, slotCount);
+            out.putLong(24, followerCount);
+
+            RollingWindow window = new RollingWindow(windowLength);
+            long mask = slotCount - 1;
+            int context = 0;
+            long follower = 0;
+            for (Map.Entry<String, List> entry : map.entrySet()) {
+                String key = entry.getKey();
+                List l = entry.getValue();
+
+                // put the context in the first empty slot
+                window.set(key);
+                long i = ContextTable.slot(window.longHashCode(), mask);
+                while (out.getInt(HEADER_SIZE + 4 * i) != 0) {
+                    i = (i + 1) & mask;
+                }
+                out.putInt(HEADER_SIZE + 4 * i, context + 1);
+
+                // write the record of the context, and its followers
+                int total = 0;
+                long position = followersStart + follower * FOLLOWER_SIZE;
+                ListIterator it = l.listIterator(0);
+                while (it != null && it.hasNext()) {
+                    CharData c = it.next();
+                    out.putChar(position, c.chr);
+                    out.putInt(position + 2, c.count);
+                    position += FOLLOWER_SIZE;
+                    total += c.count;
+                }
+                long record = contextsStart + (long) context * contextSize;
+                for (int j = 0; j < windowLength; j++) {
+                    out.putChar(record + 2 * j, key.charAt(j));
+                }
+                out.putLong(record + 2 * windowLength, follower);
+                out.putInt(record + 2 * windowLength + 8, l.getSize());
+                out.putInt(record + 2 * windowLength + 12, total);
+                follower += l.getSize();
+                context++;
+            }
+            out.force();
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("Could not write " + fileName, ioe);
+        }
+    }
+
+    // Returns the index of the given context in the file, or -1 if the model does not have it
+    private int find(RollingWindow window) {
+        long mask = slotCount - 1;
+        for (long i = ContextTable.slot(window.longHashCode(), mask); ; i = (i + 1) & mask) {
+            int context = file.getInt(HEADER_SIZE + 4 * i) - 1;
+            if (context == -1) return -1;
+            if (keyEquals(context, window)) return context;
+        }
+    }
+
+    // Returns a follower of the given context, chosen by the given random number,
+    // like LanguageModel.getRandomChar chooses a character from a list (see FollowerStore.sample)
+    private char sample(int context, double r) {
+        return FollowerStore.sample(this, context, file.getInt(record(context) + 12), r);
+    }
+
+    /** Returns the position in the file of the first follower of the given context,
+     *  or -1 if it has none. */
+    public long firstFollower(int context) {
+        long record = record(context);
+        if (file.getInt(record + 8) == 0) return -1;
+        return followersStart + file.getLong(record) * FOLLOWER_SIZE;
+    }
+
+    /** Returns the position in the file of the follower of the given context that comes after
+     *  the given one, or -1 if the given one is the last one. */
+    public long nextFollower(int context, long follower) {
+        // the followers of a context are stored together
+        long record = record(context);
+        long end = followersStart + (file.getLong(record) + file.getInt(record + 8)) * FOLLOWER_SIZE;
+        follower += FOLLOWER_SIZE;
+        return (follower < end) ? follower : -1;
+    }
+
+    /** Returns the character of the follower at the given position in the file. */
+    public char followerChar(long follower) {
+        return file.getChar(follower);
+    }
+
+    /** Returns the count of the follower at the given position in the file. */
+    public int followerCount(long follower) {
+        return file.getInt(follower + 2);
+    }
+
+    // Returns the position in the file of the fields of the given context that follow its key
+    // (the index of its first follower, the number of its followers and the sum of their counts)
+    private long record(int context) {
+        return contextsStart + (long) context * contextSize + 2 * windowLength;
+    }
+
+    // Checks if the given context has the same characters as the given window
+    private boolean keyEquals(int context, RollingWindow window) {
+        long record = contextsStart + (long) context * contextSize;
+        for (int j = 0; j < windowLength; j++) {
+            if (file.getChar(record + 2 * j) != window.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    /** The bytes of a mapped file, addressed by long positions. The file is mapped in segments of
+     *  a fixed size (the last one may be shorter), each in its own MappedByteBuffer (big-endian).
+     *  A value that crosses the end of a segment is read (or written) one byte at a time. */
+    private static final class Segments {
+
+        // The bits of a position in its segment, and the mask of these bits
+        private final int shift;
+        private final long mask;
+
+        // The size of the file
+        private final long size;
+
+        // The mapped segments
+        private final MappedByteBuffer[] segments;
+
+        // Maps the first given number of bytes of the given channel, in segments of the given size
+        Segments(FileChannel channel, FileChannel.MapMode mode, long size, int segmentSize) throws IOException {
+            if (segmentSize <= 0 || Integer.bitCount(segmentSize) != 1) {
+                throw new IllegalArgumentException("illegal segment size " + segmentSize);
+            }
+            shift = Integer.numberOfTrailingZeros(segmentSize);
+            mask = segmentSize - 1;
+            this.size = size;
+            segments = new MappedByteBuffer[(int) ((size + mask) >>> shift)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = (long) s << shift;
+                segments[s] = channel.map(mode, start, Math.min(segmentSize, size - start));
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        char getChar(long position) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 2 <= segment.limit()) return segment.getChar(offset);
+            return (char) getBytes(position, 2);
+        }
+
+        int getInt(long position) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 4 <= segment.limit()) return segment.getInt(offset);
+            return (int) getBytes(position, 4);
+        }
+
+        long getLong(long position) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 8 <= segment.limit()) return segment.getLong(offset);
+            return getBytes(position, 8);
+        }
+
+        void putChar(long position, char value) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 2 <= segment.limit()) segment.putChar(offset, value);
+            else putBytes(position, value, 2);
+        }
+
+        void putInt(long position, int value) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 4 <= segment.limit()) segment.putInt(offset, value);
+            else putBytes(position, value, 4);
+        }
+
+        void putLong(long position, long value) {
+            MappedByteBuffer segment = segments[(int) (position >>> shift)];
+            int offset = (int) (position & mask);
+            if (offset + 8 <= segment.limit()) segment.putLong(offset, value);
+            else putBytes(position, value, 8);
+        }
+
+        // Writes the changes of all the segments to the file
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        // Returns the big-endian value of the given number of bytes at the given position
+        private long getBytes(long position, int bytes) {
+            long value = 0;
+            for (int b = 0; b < bytes; b++, position++) {
+                value = (value << 8) | (segments[(int) (position >>> shift)].get((int) (position & mask)) & 0xFF);
+            }
+            return value;
+        }
+
+        // Writes the given value as the given number of big-endian bytes, at the given position
+        private void putBytes(long position, long value, int bytes) {
+            for (int b = bytes - 1; b >= 0; b--, position++) {
+                segments[(int) (position >>> shift)].put((int) (position & mask), (byte) (value >>> (8 * b)));
+            }
+        }
+    }
+}
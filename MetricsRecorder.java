@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Model metrics that keep counters and histograms in memory: the chars that were counted
+ *  and the time that the trainings took (so the chars read per second), the number of
+ *  contexts, the distribution of the number of followers of the contexts, the lengths of
+ *  the list scans during training, the depths of the scans of getRandomChar, and the latency
+ *  of generate(). The histograms have a bucket for each power of 2, so recording a value
+ *  takes constant time and memory. The recorder is thread safe. */
+public class MetricsRecorder implements ModelMetrics {
+
+    // The chars that were counted in all the trainings, and the time that they took
+    private final AtomicLong chars = new AtomicLong();
+    private final AtomicLong trainNanos = new AtomicLong();
+
+    // The number of contexts of the model, after the last training
+    private volatile int contexts;
+
+    // The distributions of the measures
+    private final Histogram followersPerContext = new Histogram();
+    private final Histogram listScanLengths = new Histogram();
+    private final Histogram sampleScanDepths = new Histogram();
+    private final Histogram generateNanos = new Histogram();
+
+    public void trainCompleted(long chars, long nanos, int contexts) {
+        this.chars.addAndGet(chars);
+        trainNanos.addAndGet(nanos);
+        this.contexts = contexts;
+    }
+
+    public void contextFollowers(int followers) {
+        followersPerContext.record(followers);
+    }
+
+    public void listScanned(CharSequence context, int length) {
+        listScanLengths.record(length);
+    }
+
+    public void charSampled(int depth) {
+        sampleScanDepths.record(depth);
+    }
+
+    public void generateCompleted(int chars, long nanos) {
+        generateNanos.record(nanos);
+    }
+
+    /** Returns the number of chars that were counted in all the trainings. */
+    public long getChars() {
+        return chars.get();
+    }
+
+    /** Returns the number of chars that the trainings counted per second. */
+    public double getCharsPerSecond() {
+        long nanos = trainNanos.get();
+        return nanos == 0 ? 0 : chars.get() * 1e9 / nanos;
+    }
+
+    /** Returns the number of contexts of the model, after the last training. */
+    public int getContexts() {
+        return contexts;
+    }
+
+    /** Returns the distribution of the number of followers of the contexts. */
+    public Histogram getFollowersPerContext() {
+        return followersPerContext;
+    }
+
+    /** Returns the distribution of the lengths of the list scans during training. */
+    public Histogram getListScanLengths() {
+        return listScanLengths;
+    }
+
+    /** Returns the distribution of the depths of the scans of getRandomChar. */
+    public Histogram getSampleScanDepths() {
+        return sampleScanDepths;
+    }
+
+    /** Returns the distribution of the latency of generate(), in nanoseconds. */
+    public Histogram getGenerateNanos() {
+        return generateNanos;
+    }
+
+    /** Returns a textual summary of the metrics. */
+    public String toString() {
+        return "chars: " + getChars() + ", chars/s: " + (long) getCharsPerSecond() + ", contexts: " + contexts + "\n"
+             + "followers per context: " + followersPerContext + "\n"
+             + "list scan length: " + listScanLengths + "\n"
+             + "sample scan depth: " + sampleScanDepths + "\n"
+             + "generate latency (ns): " + generateNanos;
+    }
+
+    /** A thread safe histogram of non-negative values, with a bucket for each power of 2:
+     *  bucket 0 counts the zeros, and bucket k counts the values between 2^(k-1) and 2^k - 1. */
+    public static class Histogram {
+
+        // The counts of the buckets
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        // The number of values, their sum, and the largest one
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /** Adds the given value to this histogram. */
+        public void record(long value) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m = max.get();
+            while (value > m && !max.compareAndSet(m, value)) {
+                m = max.get();
+            }
+        }
+
+        /** Returns the number of values in the given bucket of this histogram. */
+        public long getBucketCount(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        /** Returns the number of values in this histogram. */
+        public long getCount() {
+            return count.get();
+        }
+
+        /** Returns the mean of the values (0 if there are none). */
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) sum.get() / n;
+        }
+
+        /** Returns the largest value (0 if there are none). */
+        public long getMax() {
+            return max.get();
+        }
+
+        /** Returns an upper bound of the given percentile (between 0 and 100) of the values:
+         *  the largest value of the bucket that holds the percentile. */
+        public long getPercentile(double percentile) {
+            long n = count.get();
+            long rank = (long) Math.ceil(n * percentile / 100);
+            long seen = 0;
+            for (int k = 0; k < 64; k++) {
+                seen += buckets.get(k);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(k == 0 ? 0 : (1L << k) - 1, max.get());
+                }
+            }
+            return 0;
+        }
+
+        /** Returns a textual summary of this histogram. */
+        public String toString() {
+            return "count " + getCount() + ", mean " + String.format("%.2f", getMean())
+                 + ", p50 <= " + getPercentile(50) + ", p99 <= " + getPercentile(99) + ", max " + getMax();
+        }
+    }
+}
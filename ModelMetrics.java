@@ -0,0 +1,27 @@
+/** Receives measures of the training and the generation of a LanguageModel
+ *  (see LanguageModel.setMetrics). A model without metrics measures nothing, so the only
+ *  cost of the instrumentation then is a null check at each measuring point.
+ *  The methods may be called by several threads at the same time (for example, by the
+ *  threads of trainParallel), so an implementation must be thread safe. */
+public interface ModelMetrics {
+
+    /** Called when a training ends, with the number of chars that were counted,
+     *  the time that the training took, and the number of contexts of the model. */
+    void trainCompleted(long chars, long nanos, int contexts);
+
+    /** Called at the end of a training for each context of the model,
+     *  with the number of distinct chars that follow it. */
+    void contextFollowers(int followers);
+
+    /** Called for each char that is counted during training, with the context of the char
+     *  and the number of elements of the list of the context that were scanned to find the char. */
+    void listScanned(CharSequence context, int length);
+
+    /** Called for each char that getRandomChar draws from a list, with the number of elements
+     *  of the list that were scanned (or, with a compiled sampler, the number of cumulative
+     *  probabilities that its binary search compared, and 1 for an alias table). */
+    void charSampled(int depth);
+
+    /** Called when a generation ends, with the number of generated chars and the time it took. */
+    void generateCompleted(int chars, long nanos);
+}
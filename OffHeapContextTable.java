@@ -0,0 +1,356 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/** A context index with the layout of ContextTable, that keeps all its arrays outside the heap,
+ *  in direct ByteBuffers. The heap holds only the few objects of the table and its buffers,
+ *  whatever the size of the model, so a huge model adds almost nothing for the garbage collector
+ *  to mark. Each array is a sequence of fixed-size chunks (one direct buffer per chunk),
+ *  addressed by long indices, so the arrays are not limited to 2 GB, and growing an array adds
+ *  chunks instead of copying it. The contexts are found by open addressing over their
+ *  64 bit hash codes, and the followers of each context are chained like in ContextTable,
+ *  so sampling them gives the same results as a LanguageModel.
+ *  The memory of the buffers is freed when the table is closed (and the old slots are freed
+ *  when the open addressing table grows), instead of when the garbage collector finds the
+ *  buffers unreachable. A table must not be used after it is closed.
+ *  Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to the maximal heap
+ *  size (-Xmx). A model that is larger than the heap therefore needs a larger limit, for
+ *  example java -Xmx1g -XX:MaxDirectMemorySize=24g for a 20 GB model with a small heap. */
+public class OffHeapContextTable implements ContextIndex, FollowerStore, AutoCloseable {
+
+    // The length of the contexts in this table
+    private final int windowLength;
+
+    // The open addressing table. Each slot holds (context index + 1), or 0 if the slot is empty
+    private Chunks slots;
+
+    // The number of slots of the open addressing table (a power of 2)
+    private long slotCount;
+
+    // The number of contexts in this table
+    private int size;
+
+    // The characters of all the contexts: context i is at [i * windowLength, (i + 1) * windowLength)
+    private final Chunks keys;
+
+    // The 64 bit hash code of each context
+    private final Chunks hashes;
+
+    // The index of the first follower of each context (-1 if it has none)
+    private final Chunks firstFollower;
+
+    // The sum of the counts of the followers of each context
+    private final Chunks totals;
+
+    // The number of followers in the follower store
+    private int followerCount;
+
+    // The follower store: the character, the count, and the index of the next follower
+    // of the same context (-1 at the end of the chain)
+    private final Chunks chrs;
+    private final Chunks counts;
+    private final Chunks next;
+
+    /** Constructs an empty table of contexts of the given length. */
+    public OffHeapContextTable(int windowLength) {
+        this.windowLength = windowLength;
+        slotCount = 2 * Chunks.CHUNK_LENGTH;
+        slots = new Chunks(4);
+        slots.ensureCapacity(slotCount);
+        keys = new Chunks(2);
+        hashes = new Chunks(8);
+        firstFollower = new Chunks(4);
+        totals = new Chunks(4);
+        chrs = new Chunks(2);
+        counts = new Chunks(4);
+        next = new Chunks(4);
+    }
+
+    /** Returns the number of contexts in this table. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the length of the contexts in this table. */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** Frees the memory that this table allocated outside the heap. */
+    public void close() {
+        slots.free();
+        keys.free();
+        hashes.free();
+        firstFollower.free();
+        totals.free();
+        chrs.free();
+        counts.free();
+        next.free();
+        size = 0;
+        followerCount = 0;
+    }
+
+    /** Returns the number of bytes that this table allocated outside the heap (and did not free). */
+    public long offHeapBytes() {
+        return slots.bytes() + keys.bytes() + hashes.bytes() + firstFollower.bytes() + totals.bytes()
+             + chrs.bytes() + counts.bytes() + next.bytes();
+    }
+
+    /** Returns the index of the given context in this table, or -1 if the table does not have it. */
+    public int find(RollingWindow window) {
+        long hash = window.longHashCode();
+        long mask = slotCount - 1;
+        for (long i = ContextTable.slot(hash, mask); slots.getInt(i) != 0; i = (i + 1) & mask) {
+            int context = slots.getInt(i) - 1;
+            if (hashes.getLong(context) == hash && keyEquals(context, window)) {
+                return context;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the index of the given context in this table.
+     *  If the table does not have the context, adds it (with no followers). */
+    public int findOrAdd(RollingWindow window) {
+        long hash = window.longHashCode();
+        long mask = slotCount - 1;
+        long i = ContextTable.slot(hash, mask);
+        for (; slots.getInt(i) != 0; i = (i + 1) & mask) {
+            int context = slots.getInt(i) - 1;
+            if (hashes.getLong(context) == hash && keyEquals(context, window)) {
+                return context;
+            }
+        }
+
+        // add the context
+        int context = size++;
+        keys.ensureCapacity((long) size * windowLength);
+        hashes.ensureCapacity(size);
+        firstFollower.ensureCapacity(size);
+        totals.ensureCapacity(size);
+        long offset = (long) context * windowLength;
+        for (int j = 0; j < windowLength; j++) {
+            keys.putChar(offset + j, window.charAt(j));
+        }
+        hashes.putLong(context, hash);
+        firstFollower.putInt(context, -1);
+        totals.putInt(context, 0);
+        slots.putInt(i, context + 1);
+
+        // keep the table at most half full
+        if (2L * size > slotCount) {
+            rehash();
+        }
+        return context;
+    }
+
+    /** If the given character follows the given context, increments its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with count 1. */
+    public void add(int context, char chr) {
+        add(context, chr, 1);
+    }
+
+    /** If the given character follows the given context, adds the given count to its count.
+     *  Otherwise, adds it to the beginning of the followers of the context, with the given count. */
+    public void add(int context, char chr, int count) {
+        totals.putInt(context, totals.getInt(context) + count);
+        for (int f = firstFollower.getInt(context); f != -1; f = next.getInt(f)) {
+            if (chrs.getChar(f) == chr) {
+                counts.putInt(f, counts.getInt(f) + count);
+                return;
+            }
+        }
+        int f = followerCount++;
+        chrs.ensureCapacity(followerCount);
+        counts.ensureCapacity(followerCount);
+        next.ensureCapacity(followerCount);
+        chrs.putChar(f, chr);
+        counts.putInt(f, count);
+        next.putInt(f, firstFollower.getInt(context));
+        firstFollower.putInt(context, f);
+    }
+
+    /** Returns the number of times the given context was seen (the sum of the counts of its followers). */
+    public int getTotal(int context) {
+        return totals.getInt(context);
+    }
+
+    /** Returns a follower of the given context, chosen by the given random number (between 0 and 1),
+     *  like ContextTable.sample. */
+    public char sample(int context, double r) {
+        return FollowerStore.sample(this, context, totals.getInt(context), r);
+    }
+
+    /** Returns the index of the first follower of the given context, or -1 if it has none. */
+    public long firstFollower(int context) {
+        return firstFollower.getInt(context);
+    }
+
+    /** Returns the index of the follower of the given context that comes after the given one,
+     *  or -1 if the given one is the last one. */
+    public long nextFollower(int context, long follower) {
+        return next.getInt(follower);
+    }
+
+    /** Returns the character of the given follower. */
+    public char followerChar(long follower) {
+        return chrs.getChar(follower);
+    }
+
+    /** Returns the count of the given follower. */
+    public int followerCount(long follower) {
+        return counts.getInt(follower);
+    }
+
+    /** Returns the characters of the given context, as a new String. */
+    public String getKey(int context) {
+        char[] key = new char[windowLength];
+        long offset = (long) context * windowLength;
+        for (int j = 0; j < windowLength; j++) {
+            key[j] = keys.getChar(offset + j);
+        }
+        return new String(key);
+    }
+
+    /** Returns a textual representation of this table, in the format of LanguageModel.toString()
+     *  (the contexts are listed in the order in which they were added). */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (int context = 0; context < size; context++) {
+            str.append(getKey(context)).append(" : ");
+            FollowerStore.appendFollowers(str, this, context, totals.getInt(context), true);
+            str.append('\n');
+        }
+        return str.toString();
+    }
+
+    // Checks if the given context has the same characters as the given window
+    private boolean keyEquals(int context, RollingWindow window) {
+        long offset = (long) context * windowLength;
+        for (int j = 0; j < windowLength; j++) {
+            if (keys.getChar(offset + j) != window.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    // Doubles the size of the open addressing table, and re-inserts all the contexts
+    private void rehash() {
+        slotCount *= 2;
+        slots.free();
+        slots = new Chunks(4);
+        slots.ensureCapacity(slotCount);
+        long mask = slotCount - 1;
+        for (int context = 0; context < size; context++) {
+            long i = ContextTable.slot(hashes.getLong(context), mask);
+            while (slots.getInt(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            slots.putInt(i, context + 1);
+        }
+    }
+
+    /** An array of fixed-size elements outside the heap, made of chunks of CHUNK_LENGTH elements,
+     *  each in its own direct ByteBuffer (in the native byte order). The elements are zero
+     *  when the chunk is allocated. */
+    private static final class Chunks {
+
+        // The number of elements in a chunk (a power of 2), and the bits of an index in its chunk
+        static final int CHUNK_SHIFT = 16;
+        static final int CHUNK_LENGTH = 1 << CHUNK_SHIFT;
+        static final int CHUNK_MASK = CHUNK_LENGTH - 1;
+
+        // Frees the memory of a direct buffer on request: sun.misc.Unsafe.invokeCleaner, bound to
+        // the Unsafe object (null if it is not available, and then the memory is freed when the
+        // buffer is collected)
+        private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+        // The size of an element, in bytes
+        private final int elementSize;
+
+        // The chunks of the array
+        private ByteBuffer[] chunks = new ByteBuffer[0];
+
+        // The number of chunks in use
+        private int chunkCount;
+
+        Chunks(int elementSize) {
+            this.elementSize = elementSize;
+        }
+
+        // Adds chunks until the array can hold the given number of elements
+        void ensureCapacity(long length) {
+            while ((long) chunkCount << CHUNK_SHIFT < length) {
+                if (chunkCount == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, Math.max(4, chunkCount * 2));
+                }
+                chunks[chunkCount++] = ByteBuffer.allocateDirect(CHUNK_LENGTH * elementSize)
+                                                 .order(ByteOrder.nativeOrder());
+            }
+        }
+
+        // Frees the memory of the chunks, and empties the array
+        void free() {
+            for (int c = 0; c < chunkCount; c++) {
+                if (INVOKE_CLEANER != null) {
+                    try {
+                        INVOKE_CLEANER.invokeExact(chunks[c]);
+                    }
+                    catch (Throwable t) {
+                        throw new IllegalStateException("Could not free a direct buffer", t);
+                    }
+                }
+                chunks[c] = null;
+            }
+            chunkCount = 0;
+        }
+
+        // Returns the method handle that frees direct buffers, or null if it is not available
+        // (it is looked up by reflection, since sun.misc.Unsafe is not a supported API)
+        private static MethodHandle invokeCleaner() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return MethodHandles.lookup()
+                        .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                        .bindTo(field.get(null));
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        // Returns the number of bytes of the chunks
+        long bytes() {
+            return (long) chunkCount * CHUNK_LENGTH * elementSize;
+        }
+
+        char getChar(long i) {
+            return chunks[(int) (i >>> CHUNK_SHIFT)].getChar(((int) i & CHUNK_MASK) << 1);
+        }
+
+        void putChar(long i, char c) {
+            chunks[(int) (i >>> CHUNK_SHIFT)].putChar(((int) i & CHUNK_MASK) << 1, c);
+        }
+
+        int getInt(long i) {
+            return chunks[(int) (i >>> CHUNK_SHIFT)].getInt(((int) i & CHUNK_MASK) << 2);
+        }
+
+        void putInt(long i, int value) {
+            chunks[(int) (i >>> CHUNK_SHIFT)].putInt(((int) i & CHUNK_MASK) << 2, value);
+        }
+
+        long getLong(long i) {
+            return chunks[(int) (i >>> CHUNK_SHIFT)].getLong(((int) i & CHUNK_MASK) << 3);
+        }
+
+        void putLong(long i, long value) {
+            chunks[(int) (i >>> CHUNK_SHIFT)].putLong(((int) i & CHUNK_MASK) << 3, value);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/** Represents the window of the last characters of a text, as the text is read
+ *  (or generated) one character at a time. Advancing the window allocates nothing:
+ *  the characters are kept in a ring buffer, and the hash code is updated incrementally.
+ *  The hash code of a window always equals the hash code of the String that has
+ *  the same characters, and equals() compares the characters of the window with those
+ *  of any CharSequence. Therefore a window can be used to look up a key in a map whose
+ *  keys are Strings (like CharDataMap), without creating a String for the lookup. */
+public class RollingWindow implements CharSequence {
+
+    // The characters of the window, starting at index start and wrapping around
+    private final char[] ring;
+
+    // The index of the first (oldest) character of the window in the ring
+    private int start;
+
+    // The hash code of the window, computed like String.hashCode()
+    private int hash;
+
+    // 31 to the power of (length - 1), the weight of the first character in the hash code
+    private final int power;
+
+    // A 64 bit hash code of the window, computed like the hash code with a larger multiplier
+    private long longHash;
+
+    // LONG_MULTIPLIER to the power of (length - 1)
+    private final long longPower;
+
+    // The multiplier of the 64 bit hash code (the 64 bit FNV prime)
+    static final long LONG_MULTIPLIER = 0x100000001b3L;
+
+    /** Constructs a window of the given length. Initially, all the characters
+     *  of the window are '\0', until they are pushed out by add(). */
+    public RollingWindow(int length) {
+        ring = new char[length];
+        int p = length > 0 ? 1 : 0;
+        long lp = p;
+        for (int i = 1; i < length; i++) {
+            p *= 31;
+            lp *= LONG_MULTIPLIER;
+        }
+        power = p;
+        longPower = lp;
+    }
+
+    /** Sets the characters of this window to the last characters of the given text.
+     *  The text must be at least as long as this window. */
+    public void set(CharSequence text) {
+        start = 0;
+        hash = 0;
+        longHash = 0;
+        int offset = text.length() - ring.length;
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = text.charAt(offset + i);
+            hash = 31 * hash + ring[i];
+            longHash = LONG_MULTIPLIER * longHash + ring[i];
+        }
+    }
+
+    /** Advances this window by one character: removes the first character of the window,
+     *  and adds the given character at its end. */
+    public void add(char c) {
+        if (ring.length == 0) return;
+        hash = (hash - ring[start] * power) * 31 + c;
+        longHash = (longHash - ring[start] * longPower) * LONG_MULTIPLIER + c;
+        ring[start] = c;
+        start = (start + 1 == ring.length) ? 0 : start + 1;
+    }
+
+    /** Returns the length of this window. */
+    public int length() {
+        return ring.length;
+    }
+
+    /** Returns the character at the given index of this window (0 is the oldest character). */
+    public char charAt(int index) {
+        if (index < 0 || index >= ring.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int i = start + index;
+        return ring[i < ring.length ? i : i - ring.length];
+    }
+
+    /** Returns the characters of this window between the given indexes, as a new String. */
+    public CharSequence subSequence(int from, int to) {
+        return toString().substring(from, to);
+    }
+
+    /** Returns the characters of this window as a new String. */
+    public String toString() {
+        char[] chars = new char[ring.length];
+        System.arraycopy(ring, start, chars, 0, ring.length - start);
+        System.arraycopy(ring, 0, chars, ring.length - start, start);
+        return new String(chars);
+    }
+
+    /** Returns the hash code of this window, which equals the hash code of the String
+     *  with the same characters. */
+    public int hashCode() {
+        return hash;
+    }
+
+    /** Returns a 64 bit hash code of this window, for tables that index windows by long hashes.
+     *  Like the hash code, it depends only on the characters of the window. */
+    public long longHashCode() {
+        return longHash;
+    }
+
+    /** Checks if the given object is a CharSequence (like a String) with the same characters
+     *  as this window. */
+    public boolean equals(Object other) {
+        if (!(other instanceof CharSequence)) return false;
+        CharSequence text = (CharSequence) other;
+        if (text.length() != ring.length) return false;
+        int i = start;
+        for (int j = 0; j < ring.length; j++) {
+            if (ring[i] != text.charAt(j)) return false;
+            i = (i + 1 == ring.length) ? 0 : i + 1;
+        }
+        return true;
+    }
+}
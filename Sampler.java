@@ -0,0 +1,172 @@
+/** Draws random characters from the characters of a list (the followers of a context),
+ *  with the probabilities of their counts. A sampler is compiled once from a list,
+ *  into primitive arrays, and is not changed afterwards.
+ *  A BINARY_SEARCH sampler finds the drawn character by a binary search over the cumulative
+ *  probabilities of the list, which are computed like in LanguageModel.calculateProbabilities.
+ *  For a given random number, it returns the same character as the linear scan of
+ *  LanguageModel.getRandomChar, so seeded runs produce the same texts.
+ *  An ALIAS sampler draws a character in constant time, using the alias method (Vose),
+ *  but it maps random numbers to characters differently, so seeded runs produce other texts. */
+public class Sampler {
+
+    /** The ways to draw a character from a list. */
+    public enum Kind {
+        // scan the cumulative probabilities of the list (no sampler is compiled)
+        LINEAR,
+        // binary search over the cumulative probabilities (same results as LINEAR)
+        BINARY_SEARCH,
+        // alias table (constant time, different results than LINEAR)
+        ALIAS
+    }
+
+    // The kind of this sampler
+    final Kind kind;
+
+    // The characters of the list, in the order of the list
+    private final char[] chrs;
+
+    // The cumulative probabilities of the characters (for BINARY_SEARCH)
+    private final double[] cps;
+
+    // The probability of each column of the alias table to return its own character,
+    // and the index of the character it returns otherwise (for ALIAS)
+    private final double[] probs;
+    private final int[] alias;
+
+    // Constructs a sampler of the given kind from the given arrays
+    private Sampler(Kind kind, char[] chrs, double[] cps, double[] probs, int[] alias) {
+        this.kind = kind;
+        this.chrs = chrs;
+        this.cps = cps;
+        this.probs = probs;
+        this.alias = alias;
+    }
+
+    /** Compiles a sampler of the given kind (BINARY_SEARCH or ALIAS)
+     *  from the counts of the characters of the given list. */
+    public static Sampler compile(List list, Kind kind) {
+        CharData[] data = list.toArray();
+        int n = data.length;
+        char[] chrs = new char[n];
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++) {
+            chrs[i] = data[i].chr;
+            counts[i] = data[i].count;
+        }
+        return compile(chrs, counts, kind);
+    }
+
+    /** Compiles a sampler of the given kind (BINARY_SEARCH or ALIAS)
+     *  from the given characters and their counts. */
+    public static Sampler compile(char[] chrs, int[] counts, Kind kind) {
+        int n = chrs.length;
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += counts[i];
+        }
+
+        if (kind == Kind.ALIAS) {
+            return compileAlias(chrs, counts, sum);
+        }
+        if (kind != Kind.BINARY_SEARCH) {
+            throw new IllegalArgumentException("cannot compile a sampler of kind " + kind);
+        }
+
+        // the same computation as in LanguageModel.calculateProbabilities
+        double[] cps = new double[n];
+        double b4_sum = 0;
+        for (int i = 0; i < n; i++) {
+            double p = (double) counts[i] / sum;
+            cps[i] = b4_sum + p;
+            b4_sum += p;
+        }
+        return new Sampler(kind, chrs, cps, null, null);
+    }
+
+    // Builds the alias table of the given characters (Vose's method)
+    private static Sampler compileAlias(char[] chrs, int[] counts, int sum) {
+        int n = chrs.length;
+        double[] probs = new double[n];
+        int[] alias = new int[n];
+
+        // the columns whose scaled probability is below 1, and those at or above 1
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = (double) counts[i] * n / sum;
+            if (scaled[i] < 1) small[smallCount++] = i;
+            else large[largeCount++] = i;
+        }
+
+        // fill each small column with a part of a large one
+        while (smallCount > 0 && largeCount > 0) {
+            int s = small[--smallCount];
+            int l = large[--largeCount];
+            probs[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1;
+            if (scaled[l] < 1) small[smallCount++] = l;
+            else large[largeCount++] = l;
+        }
+
+        // the remaining columns are full (up to rounding errors)
+        while (largeCount > 0) {
+            int l = large[--largeCount];
+            probs[l] = 1;
+            alias[l] = l;
+        }
+        while (smallCount > 0) {
+            int s = small[--smallCount];
+            probs[s] = 1;
+            alias[s] = s;
+        }
+        return new Sampler(Kind.ALIAS, chrs, null, probs, alias);
+    }
+
+    /** Returns the number of characters of this sampler. */
+    public int size() {
+        return chrs.length;
+    }
+
+    /** Returns the character that is drawn by the given random number (between 0 and 1),
+     *  or '^' if there is no such character (like LanguageModel.getRandomChar). */
+    public char sample(double r) {
+        if (kind == Kind.ALIAS) {
+            if (chrs.length == 0) return '^';
+            // the integer part of r * n chooses a column, and the fraction chooses
+            // between the column's character and its alias
+            double x = r * chrs.length;
+            int column = (int) x;
+            return (x - column < probs[column]) ? chrs[column] : chrs[alias[column]];
+        }
+
+        // find the first character whose cumulative probability is greater than r
+        int low = 0;
+        int high = cps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cps[mid] > r) high = mid;
+            else low = mid + 1;
+        }
+        return low < cps.length ? chrs[low] : '^';
+    }
+
+    /** Returns the number of cumulative probabilities that sample(r) compares to the given
+     *  random number (1 for an ALIAS sampler, which looks at one column), for metrics. */
+    public int depth(double r) {
+        if (kind == Kind.ALIAS) return 1;
+        int depth = 0;
+        int low = 0;
+        int high = cps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cps[mid] > r) high = mid;
+            else low = mid + 1;
+            depth++;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,10 @@
+/** A model that generates random texts from an initial text, like LanguageModel.generate.
+ *  Code that only generates texts can take a TextGenerator, and work with any of the models
+ *  (a trained LanguageModel, a CompactLanguageModel, a BackoffLanguageModel, or a
+ *  MappedLanguageModel that is queried in place in a model file). */
+public interface TextGenerator {
+
+    /** Generates a random text that starts with the given initial text, and continues it
+     *  with (at most) textLength random characters. */
+    String generate(String initialText, int textLength);
+}
@@ -0,0 +1,108 @@
+/** Compares the running times of the ways to read a corpus and train a language model:
+ *  the In based reading loop, the buffered CorpusReader, and the memory-mapped CorpusReader,
+ *  training on one thread or on all the available processors, and loading a saved model.
+ *  Usage: java TrainBenchmark [windowLength] [runs] [file ...]
+ *  By default, the benchmark uses window length 7 and the bundled corpora. */
+public class TrainBenchmark {
+
+    public static void main(String[] args) {
+        int windowLength = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] fileNames = { "originofspecies.txt", "shakespeareinlove.txt" };
+        if (args.length > 2) {
+            fileNames = new String[args.length - 2];
+            System.arraycopy(args, 2, fileNames, 0, fileNames.length);
+        }
+
+        for (String fileName : fileNames) {
+            System.out.println(fileName + " (windowLength = " + windowLength + ", best of " + runs + " runs)");
+
+            // reading only
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) best = Math.min(best, readWithIn(fileName));
+            report("read, In", best);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) best = Math.min(best, readWithCorpusReader(fileName, false));
+            report("read, CorpusReader", best);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) best = Math.min(best, readWithCorpusReader(fileName, true));
+            report("read, mapped CorpusReader", best);
+
+            // training
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                LanguageModel lm = new LanguageModel(windowLength, 20);
+                long start = System.nanoTime();
+                lm.train(fileName);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("train", best);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                LanguageModel lm = new LanguageModel(windowLength, 20);
+                long start = System.nanoTime();
+                lm.trainMapped(fileName);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("trainMapped", best);
+            int threads = Runtime.getRuntime().availableProcessors();
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                LanguageModel lm = new LanguageModel(windowLength, 20);
+                long start = System.nanoTime();
+                lm.trainParallel(fileName, threads);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("trainParallel, " + threads + " threads", best);
+
+            // loading a saved model, instead of training it
+            LanguageModel trained = new LanguageModel(windowLength, 20);
+            trained.train(fileName);
+            String modelFile = fileName + ".lm";
+            trained.save(modelFile);
+            best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                LanguageModel lm = new LanguageModel(windowLength, 20);
+                long start = System.nanoTime();
+                lm.load(modelFile);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            report("load (saved model)", best);
+            new java.io.File(modelFile).delete();
+        }
+    }
+
+    // Reads all the characters of the file with In, the way train() used to read them,
+    // and returns the elapsed time in nanoseconds
+    private static long readWithIn(String fileName) {
+        long start = System.nanoTime();
+        In in = new In(fileName);
+        int checksum = 0;
+        while (!in.isEmpty()) {
+            checksum += in.readChar();
+        }
+        in.close();
+        long time = System.nanoTime() - start;
+        if (checksum == 42) System.out.println();
+        return time;
+    }
+
+    // Reads all the characters of the file with a CorpusReader,
+    // and returns the elapsed time in nanoseconds
+    private static long readWithCorpusReader(String fileName, boolean mapped) {
+        long start = System.nanoTime();
+        CorpusReader in = new CorpusReader(fileName, true, mapped);
+        int checksum = 0;
+        while (!in.isEmpty()) {
+            checksum += in.readChar();
+        }
+        in.close();
+        long time = System.nanoTime() - start;
+        if (checksum == 42) System.out.println();
+        return time;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf("  %-28s %10.2f ms%n", name, nanos / 1e6);
+    }
+}
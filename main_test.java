@@ -6,6 +6,8 @@ public class main_test {
         int generatedTextLength = Integer.parseInt(args[2]);
         Boolean randomGeneration = args[3].equals("random");
         String fileName = args[4];
+        // An optional "mapped" argument trains from a memory-mapped corpus
+        Boolean mappedTraining = args.length > 5 && args[5].equals("mapped");
         // Create the LanguageModel object
         LanguageModel lm;
         if (randomGeneration)
@@ -13,7 +15,10 @@ public class main_test {
         else
             lm = new LanguageModel(windowLength, 20);
         // Trains the model, creating the map.
-        lm.train(fileName);
+        if (mappedTraining)
+            lm.trainMapped(fileName);
+        else
+            lm.train(fileName);
         // Generates text, and prints it.
         System.out.println(lm.generate(initialText, generatedTextLength));
     }